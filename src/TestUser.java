@@ -1,18 +1,19 @@
+import java.util.concurrent.TimeUnit;
+
 import api.ResearchAPI;
+import message.ReceivedFile;
 
 public class TestUser {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws InterruptedException {
 		ResearchAPI api = new ResearchAPI("console", "FINEST");
 		api.connect();
 		api.addConvertFormat("csv", "png");
 		api.addWantFormats("csv");
 		api.startListening();
 		while (true) {
-			String[] receivedFile = api.getReceivedFile();
-			String receivedFilepath = receivedFile[0];
-			String receivedFileFormat = receivedFile[1];
-			if (receivedFilepath != null && receivedFileFormat != null && receivedFileFormat.equals("csv")) {
+			ReceivedFile receivedFile = api.takeReceivedFile(1, TimeUnit.MINUTES);
+			if (receivedFile != null && receivedFile.getFileFormat().equals("csv")) {
 				// do translation here
 			}
 		}
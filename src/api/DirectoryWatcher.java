@@ -0,0 +1,179 @@
+package api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import constants.Constants;
+import logging.Log;
+
+/**
+ * Watch a directory for new data files and announce them in batches.
+ *
+ * A file is considered complete once its size has not changed for
+ * {@link Constants#WATCH_POLL_MILLIS}. Completed files are collected for the debounce window and then
+ * announced together with a single announcement.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class DirectoryWatcher implements Closeable {
+
+	private static final String CLASS_NAME = DirectoryWatcher.class.getName();
+
+	private final ResearchAPI api;
+	private final Path directory;
+	private final Predicate<Path> filter;
+	private final long debounceMillis;
+	private final WatchService watchService;
+	private final Thread watching;
+
+	// Key: file being written, Value: [last size, time of last size change]
+	private final Map<Path, long[]> pending = new HashMap<>();
+	private final List<Path> completed = new ArrayList<>();
+	private long batchStart;
+
+	/**
+	 * Constructor for creating a DirectoryWatcher and starting to watch the
+	 * directory.
+	 *
+	 * @param api            The API used to announce the files.
+	 * @param directory      The directory to watch.
+	 * @param filter         The files to announce.
+	 * @param debounceMillis How long to collect completed files before announcing
+	 *                       them.
+	 * @throws IOException If the directory cannot be watched.
+	 */
+	DirectoryWatcher(ResearchAPI api, Path directory, Predicate<Path> filter, long debounceMillis)
+			throws IOException {
+		this.api = api;
+		this.directory = directory;
+		this.filter = filter;
+		this.debounceMillis = debounceMillis;
+		this.watchService = directory.getFileSystem().newWatchService();
+		directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		this.watching = new Thread(this::watch, "directory-watcher");
+		this.watching.setDaemon(true);
+		this.watching.start();
+	}
+
+	/**
+	 * Stop watching the directory. Completed files not yet announced are
+	 * discarded.
+	 */
+	@Override
+	public void close() {
+		this.watching.interrupt();
+		try {
+			this.watchService.close();
+		} catch (IOException e) {
+			Log.error(e.getMessage(), CLASS_NAME + ":close");
+		}
+	}
+
+	/**
+	 * Wait for file events until the watcher is closed.
+	 */
+	private void watch() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				WatchKey key = this.watchService.poll(Constants.WATCH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							rescan();
+						} else {
+							track(this.directory.resolve((Path) event.context()));
+						}
+					}
+					key.reset();
+				}
+				checkCompleted();
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// includes the watch service being closed
+				Log.error(String.valueOf(e.getMessage()), CLASS_NAME + ":watch");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Start tracking the size of a file that was created or modified.
+	 *
+	 * @param file The file.
+	 */
+	private void track(Path file) {
+		if (Files.isRegularFile(file) && this.filter.test(file)) {
+			this.pending.put(file, new long[] { -1, System.currentTimeMillis() });
+		}
+	}
+
+	/**
+	 * Track every file in the directory after file events were lost.
+	 */
+	private void rescan() {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+			for (Path file : files) {
+				track(file);
+			}
+		} catch (IOException e) {
+			Log.error(e.getMessage(), CLASS_NAME + ":rescan");
+		}
+	}
+
+	/**
+	 * Move files whose size has not changed for the poll interval to the completed
+	 * files and announce the completed files once the debounce window has passed.
+	 */
+	private void checkCompleted() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, long[]>> entries = this.pending.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Path, long[]> entry = entries.next();
+			long[] sizeAndTime = entry.getValue();
+			long size;
+			try {
+				size = Files.size(entry.getKey());
+			} catch (IOException e) {
+				// file was removed before it was completed
+				entries.remove();
+				continue;
+			}
+			// checks can be milliseconds apart when events arrive, so a writer that
+			// pauses briefly is not mistaken for a completed file
+			if (size == sizeAndTime[0] && now - sizeAndTime[1] >= Constants.WATCH_POLL_MILLIS) {
+				if (this.completed.isEmpty()) {
+					this.batchStart = now;
+				}
+				this.completed.add(entry.getKey());
+				entries.remove();
+			} else if (size != sizeAndTime[0]) {
+				sizeAndTime[0] = size;
+				sizeAndTime[1] = now;
+			}
+		}
+
+		if (!this.completed.isEmpty() && now - this.batchStart >= this.debounceMillis) {
+			Log.other("Announcing " + this.completed.size() + " files from " + this.directory);
+			this.api.addFiles(new ArrayList<>(this.completed));
+			this.completed.clear();
+		}
+	}
+}
@@ -1,20 +1,43 @@
 package api;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.DeliverCallback;
 
 import constants.Constants;
 import logging.Log;
+import message.DigestCache;
+import message.FileData;
 import message.Message;
+import message.MessageCodec;
+import message.MessageDispatcher;
+import message.MessageFilter;
 import message.ProcessMessage;
-import message.Wormhole.ReceiveObj;
+import message.ReceivedFile;
 import rabbitmq.RabbitMQConnection;
+import transfer.SocketTransfer;
+import transfer.TransferMetrics;
+import transfer.TransferProgress;
+import transfer.TransferScheduler;
+import transfer.Transfers;
 import user.User;
 
 /**
@@ -30,7 +53,33 @@ public class ResearchAPI {
 	private User user;
 	private RabbitMQConnection connection;
 
-	private String receivedFilename;
+	// received files waiting to be taken when no listener is registered
+	private final BlockingQueue<ReceivedFile> receivedFiles = new LinkedBlockingQueue<>(
+			Constants.RECEIVED_FILE_QUEUE_CAPACITY);
+	private final List<Consumer<ReceivedFile>> fileListeners = new CopyOnWriteArrayList<>();
+
+	private int messageThreads = Constants.MESSAGE_PROCESSING_THREADS;
+
+	// number of unacknowledged messages allowed when using manual acknowledgements,
+	// 0 to acknowledge messages automatically on delivery
+	private int prefetchCount = 0;
+
+	private boolean publisherConfirms = false;
+
+	private String contentType = Constants.CONTENT_TYPE_JSON;
+
+	private boolean topicRouting = false;
+
+	// size above which sent messages are compressed, negative to never compress
+	private int compressionThreshold = -1;
+
+	// how long direct messages wait to be batched, negative to not batch
+	private long batchLingerMillis = -1;
+
+	// true to send checksums of shared files so receivers can check them
+	private volatile boolean checksums = false;
+
+	private final Transfers transfers = new Transfers();
 
 	/**
 	 * Constructor for creating a ResearchAPI instance.
@@ -54,6 +103,9 @@ public class ResearchAPI {
 	 */
 	public void addWantFormats(String... wantFormats) {
 		this.user.addWant(wantFormats);
+		if (this.connection != null) {
+			this.connection.bindFormats();
+		}
 	}
 
 	/**
@@ -62,28 +114,117 @@ public class ResearchAPI {
 	 * @param filepath The full file path of the data.
 	 */
 	public void addFile(String filepath) {
-		File file = new File(filepath);
-		if (!file.exists()) {
-			Log.error("filepath does not exist for: '" + filepath + "'", "addFile");
+		addFiles(Arrays.asList(Paths.get(filepath)));
+	}
+
+	/**
+	 * Add the file paths for the data to share and make a single announcement
+	 * containing only the files not already shared.
+	 * 
+	 * @param filepaths The full file paths of the data.
+	 */
+	public synchronized void addFiles(Collection<Path> filepaths) {
+		List<Path> added = new ArrayList<>();
+		for (Path filepath : filepaths) {
+			if (!Files.exists(filepath)) {
+				Log.error("filepath does not exist for: '" + filepath + "'", "addFiles");
+			} else if (!this.user.getFilepaths().contains(filepath) && !added.contains(filepath)) {
+				added.add(filepath);
+			}
+		}
+		if (added.isEmpty()) {
 			return;
 		}
-		this.user.addFilepaths(filepath);
-		if (this.connection == null) {
-			connect();
-			// return if the connection is still not set
-			if (this.connection == null) {
-				return;
-			}
+		for (Path filepath : added) {
+			this.user.addFilepaths(filepath.toString());
+		}
+		if (!ensureConnected()) {
+			return;
+		}
+		if (this.checksums) {
+			// cached, so later snapshots and sends of the files include them for free
+			DigestCache.computeAll(added);
 		}
 
 		Message announceData = new Message(this.user.getUserID(), Constants.ANNOUNCE_MESSAGE);
-		for (Path path : this.user.getFilepaths()) {
+		for (Path path : added) {
 			announceData.addFilePath(path.toString());
 		}
+		announceData.addCatalogueVersion(this.user.nextCatalogueVersion(), false);
 		announceData.addContent("I have data.");
 		this.connection.announce(announceData);
 	}
 
+	/**
+	 * Stop sharing the files and announce their removal.
+	 * 
+	 * @param filepaths The full file paths of the data.
+	 */
+	public synchronized void removeFiles(Collection<Path> filepaths) {
+		Message announceRemoved = new Message(this.user.getUserID(), Constants.ANNOUNCE_MESSAGE);
+		boolean removed = false;
+		for (Path filepath : filepaths) {
+			if (this.user.removeFilepath(filepath)) {
+				announceRemoved.addRemovedFile(filepath.getFileName().toString());
+				removed = true;
+			}
+		}
+		if (!removed || !ensureConnected()) {
+			return;
+		}
+		announceRemoved.addCatalogueVersion(this.user.nextCatalogueVersion(), false);
+		announceRemoved.addContent("I no longer have data.");
+		this.connection.announce(announceRemoved);
+	}
+
+	/**
+	 * Watch a directory and announce new files once they are completely written.
+	 * Files completed close together are announced with a single announcement.
+	 * 
+	 * @param directory The directory to watch.
+	 * @param filter    The files to announce, for example
+	 *                  {@code path -> path.toString().endsWith(".csv")}.
+	 * @return The watcher, closed to stop watching, or null if the directory cannot
+	 *         be watched.
+	 */
+	public DirectoryWatcher watchDirectory(Path directory, Predicate<Path> filter) {
+		return watchDirectory(directory, filter, Constants.WATCH_DEBOUNCE_MILLIS);
+	}
+
+	/**
+	 * Watch a directory and announce new files once they are completely written.
+	 * Files completed within the debounce window are announced with a single
+	 * announcement.
+	 * 
+	 * @param directory      The directory to watch.
+	 * @param filter         The files to announce.
+	 * @param debounceMillis How long to collect completed files before announcing
+	 *                       them.
+	 * @return The watcher, closed to stop watching, or null if the directory cannot
+	 *         be watched.
+	 */
+	public DirectoryWatcher watchDirectory(Path directory, Predicate<Path> filter, long debounceMillis) {
+		try {
+			return new DirectoryWatcher(this, directory, filter, debounceMillis);
+		} catch (IOException e) {
+			Log.error("Failed to watch directory: '" + directory + "'", "watchDirectory");
+			return null;
+		}
+	}
+
+	/**
+	 * Connect to the default RabbitMQ server if not already connected.
+	 * 
+	 * @return True if connected.
+	 */
+	private boolean ensureConnected() {
+		if (this.connection == null) {
+			connect();
+		}
+		// the connection is still not set
+		return this.connection != null;
+	}
+
 	/**
 	 * Add the formats that can be translated.
 	 * 
@@ -92,6 +233,9 @@ public class ResearchAPI {
 	 */
 	public void addConvertFormat(String originalFormat, String destinationFormat) {
 		this.user.addConvert(originalFormat, destinationFormat);
+		if (this.connection != null) {
+			this.connection.bindFormats();
+		}
 	}
 
 	/**
@@ -102,6 +246,7 @@ public class ResearchAPI {
 		if (this.connection == null) {
 			return;
 		}
+		applyConnectionSettings();
 	}
 
 	/**
@@ -114,6 +259,279 @@ public class ResearchAPI {
 		if (this.connection == null) {
 			return;
 		}
+		applyConnectionSettings();
+	}
+
+	/**
+	 * Wait for the RabbitMQ server to confirm every message sent. Messages are
+	 * published through an outbox and confirmed in batches, so sending does not
+	 * wait for each confirmation. Disabling it after connecting still confirms the
+	 * messages already in the outbox.
+	 * 
+	 * @param publisherConfirms True to use publisher confirms.
+	 */
+	public void setPublisherConfirms(boolean publisherConfirms) {
+		this.publisherConfirms = publisherConfirms;
+		if (this.connection != null) {
+			applyConnectionSettings();
+		}
+	}
+
+	/**
+	 * Send messages in the compact binary encoding instead of JSON. Received
+	 * messages are decoded in whichever encoding they were sent, but only enable
+	 * this when every user in the collaboration uses a client that can decode the
+	 * binary encoding.
+	 * 
+	 * @param binary True to send binary messages, false to send JSON.
+	 */
+	public void setBinaryEncoding(boolean binary) {
+		this.contentType = binary ? Constants.CONTENT_TYPE_BINARY : Constants.CONTENT_TYPE_JSON;
+		if (this.connection != null) {
+			applyConnectionSettings();
+		}
+	}
+
+	/**
+	 * Route announcements by format so only announcements for formats the user
+	 * wants or can convert are delivered, instead of every announcement. Only
+	 * enable this when every user in the collaboration uses topic routing. Formats
+	 * added later are bound as they are added. Disabling it after connecting
+	 * returns to receiving every announcement.
+	 * 
+	 * @param topicRouting True to route announcements by format.
+	 */
+	public void setTopicRouting(boolean topicRouting) {
+		this.topicRouting = topicRouting;
+		if (this.connection != null) {
+			applyConnectionSettings();
+		}
+	}
+
+	/**
+	 * Send the SHA-256 checksum of each shared file with announcements and sent
+	 * files. Checksums are computed in parallel when files are added and are only
+	 * computed again once a file changes. Users receiving the files check them
+	 * and request files that do not match again before they are delivered.
+	 * 
+	 * @param checksums True to send checksums.
+	 */
+	public void setChecksums(boolean checksums) {
+		this.checksums = checksums;
+	}
+
+	/**
+	 * Compress sent messages larger than {@link Constants#COMPRESSION_THRESHOLD}
+	 * bytes, such as announcements of large datasets. Received messages are
+	 * decompressed automatically, but only enable this when every user in the
+	 * collaboration uses a client that can decompress messages.
+	 * 
+	 * @param compress True to compress large messages.
+	 */
+	public void setCompression(boolean compress) {
+		setCompressionThreshold(compress ? Constants.COMPRESSION_THRESHOLD : -1);
+	}
+
+	/**
+	 * Compress sent messages larger than the threshold.
+	 * 
+	 * @param thresholdBytes The size in bytes above which messages are
+	 *                       compressed, negative to never compress.
+	 * @see #setCompression(boolean)
+	 */
+	public void setCompressionThreshold(int thresholdBytes) {
+		this.compressionThreshold = thresholdBytes;
+		if (this.connection != null) {
+			applyConnectionSettings();
+		}
+	}
+
+	/**
+	 * Publish direct messages to the same user, such as many file requests, as one
+	 * batch instead of one message each. Received batches are unpacked
+	 * automatically, but only enable this when every user in the collaboration
+	 * uses a client that can unpack batches.
+	 * 
+	 * @param batch True to batch direct messages, waiting up to
+	 *              {@link Constants#BATCH_LINGER_MILLIS} for more messages.
+	 */
+	public void setBatching(boolean batch) {
+		setBatchLinger(batch ? Constants.BATCH_LINGER_MILLIS : -1);
+	}
+
+	/**
+	 * Batch direct messages to the same user, waiting up to lingerMillis for more
+	 * messages before publishing a batch.
+	 * 
+	 * @param lingerMillis How long a direct message waits for others, negative to
+	 *                     not batch.
+	 * @see #setBatching(boolean)
+	 */
+	public void setBatchLinger(long lingerMillis) {
+		this.batchLingerMillis = lingerMillis;
+		if (this.connection != null) {
+			applyConnectionSettings();
+		}
+	}
+
+	/**
+	 * Send and receive files over direct TCP connections between users instead of
+	 * magic-wormhole when both users have enabled it. Files are streamed without
+	 * encryption, so only enable this on networks the collaboration trusts. Users
+	 * that cannot connect fall back to magic-wormhole.
+	 * 
+	 * @param port The port to listen on for receivers, 0 for any free port.
+	 */
+	public void enableSocketTransfer(int port) {
+		enableSocketTransfer(null, port);
+	}
+
+	/**
+	 * Send and receive files over direct TCP connections between users.
+	 * 
+	 * @param advertisedHost The host name or address other users connect to, for
+	 *                       example when the local host address is not reachable.
+	 * @param port           The port to listen on for receivers, 0 for any free
+	 *                       port.
+	 * @see #enableSocketTransfer(int)
+	 */
+	public void enableSocketTransfer(String advertisedHost, int port) {
+		enableSocketTransfer(advertisedHost, port, Constants.SOCKET_TRANSFER_STREAMS);
+	}
+
+	/**
+	 * Send and receive files over direct TCP connections between users, receiving
+	 * large files as chunks over several connections at once.
+	 * 
+	 * @param advertisedHost The host name or address other users connect to, null
+	 *                       to use the local host address.
+	 * @param port           The port to listen on for receivers, 0 for any free
+	 *                       port.
+	 * @param streams        The number of connections a large file is received
+	 *                       over, 1 to always use one connection.
+	 * @see #enableSocketTransfer(int)
+	 */
+	public void enableSocketTransfer(String advertisedHost, int port, int streams) {
+		try {
+			this.transfers.addPreferred(new SocketTransfer(advertisedHost, port, streams));
+		} catch (IOException e) {
+			Log.error("Failed to listen for socket transfers: " + e.getMessage(), "enableSocketTransfer");
+		}
+	}
+
+	/**
+	 * Set how many files are sent at once and how many are received at once. Other
+	 * transfers wait in a queue until one finishes.
+	 * 
+	 * @param maxTransfers        The number of sends, and of receives, running at
+	 *                            once.
+	 * @param maxTransfersPerUser The number of sends, and of receives, running at
+	 *                            once with the same user.
+	 */
+	public void setTransferLimits(int maxTransfers, int maxTransfersPerUser) {
+		this.transfers.getSendScheduler().setLimits(maxTransfers, maxTransfersPerUser);
+		this.transfers.getReceiveScheduler().setLimits(maxTransfers, maxTransfersPerUser);
+	}
+
+	/**
+	 * Set the order queued transfers are started in, smallest file first by
+	 * default.
+	 * 
+	 * @param policy The order.
+	 */
+	public void setTransferPolicy(TransferScheduler.Policy policy) {
+		this.transfers.getSendScheduler().setPolicy(policy);
+		this.transfers.getReceiveScheduler().setPolicy(policy);
+	}
+
+	/**
+	 * Set the priority of transfers of files in a format when using
+	 * {@link TransferScheduler.Policy#PRIORITY}.
+	 * 
+	 * @param format   The file format.
+	 * @param priority The priority, higher is started first. Formats without a
+	 *                 priority have priority 0.
+	 */
+	public void setTransferPriority(String format, int priority) {
+		this.transfers.getSendScheduler().setPriority(format, priority);
+		this.transfers.getReceiveScheduler().setPriority(format, priority);
+	}
+
+	/**
+	 * Get the number of transfers waiting to start.
+	 * 
+	 * @return The number of queued sends and receives.
+	 */
+	public int getQueuedTransfers() {
+		return this.transfers.getSendScheduler().getQueueDepth() + this.transfers.getReceiveScheduler().getQueueDepth();
+	}
+
+	/**
+	 * Add a listener called with the progress of each running send and receive
+	 * every second, and once more when the transfer finishes. A running transfer
+	 * reported with a rate of 0 has stalled.
+	 * 
+	 * @param listener The listener, called on a transfer thread.
+	 */
+	public void onTransferProgress(Consumer<TransferProgress> listener) {
+		this.transfers.onProgress(listener);
+	}
+
+	/**
+	 * Get the bytes transferred, average rates and failures of the finished
+	 * transfers with each user.
+	 * 
+	 * @return The totals by user ID.
+	 */
+	public Map<String, TransferMetrics.Peer> getTransferMetrics() {
+		return this.transfers.getMetrics().getPeers();
+	}
+
+	/**
+	 * Apply the settings chosen before connecting to the connection.
+	 */
+	private void applyConnectionSettings() {
+		this.connection.setContentType(this.contentType);
+		this.connection.setCompressionThreshold(this.compressionThreshold);
+		this.connection.setBatching(this.batchLingerMillis);
+		if (this.publisherConfirms) {
+			this.connection.enablePublisherConfirms();
+		} else {
+			this.connection.disablePublisherConfirms();
+		}
+		if (this.topicRouting) {
+			this.connection.enableTopicRouting();
+		} else {
+			this.connection.disableTopicRouting();
+		}
+	}
+
+	/**
+	 * Set the number of threads processing received messages in parallel. Messages
+	 * from the same user are always processed in the order they were received.
+	 * Must be called before {@link #startListening()}.
+	 * 
+	 * @param messageThreads The number of processing threads.
+	 */
+	public void setMessageThreads(int messageThreads) {
+		this.messageThreads = messageThreads;
+	}
+
+	/**
+	 * Acknowledge messages manually once they have been processed instead of on
+	 * delivery. At most prefetchCount messages are delivered without being
+	 * acknowledged, so consumption pauses while processing is saturated. A message
+	 * that starts a file transfer is acknowledged once the transfer is queued, as
+	 * transfers can outlast the broker's consumer timeout and failed transfers are
+	 * retried by requesting the file again. Queuing waits while
+	 * {@link Constants#MAX_WAITING_TRANSFERS} transfers are waiting to start, so
+	 * consumption also pauses while transfers are saturated. Must be called before
+	 * {@link #startListening()}.
+	 * 
+	 * @param prefetchCount The number of unacknowledged messages allowed.
+	 */
+	public void setManualAcknowledgements(int prefetchCount) {
+		this.prefetchCount = Math.max(1, prefetchCount);
 	}
 
 	/**
@@ -129,42 +547,102 @@ public class ResearchAPI {
 	}
 
 	/**
+	 * Register a listener called with every file received. Once a listener is
+	 * registered, received files are handed to the listeners instead of being
+	 * queued for {@link #takeReceivedFile(long, TimeUnit)}. Listeners are called
+	 * on the thread that completed the transfer and should return quickly.
+	 * 
 	 * <pre>
-	 * Get the received file path and format.
-	 * Place method call in a while true loop to continuously check if file has been
-	 * received.
+	 * {@code
+	 * ResearchAPI example = new ResearchAPI("console", "INFO");
+	 * 
+	 * example.onFileReceived(receivedFile -> {
+	 * 	String receivedFilePath = receivedFile.getFilepath();
+	 * 	String receivedFileFormat = receivedFile.getFileFormat();
+	 * });
+	 * }
+	 * </pre>
+	 * 
+	 * @param listener The listener to call with each received file.
+	 */
+	public void onFileReceived(Consumer<ReceivedFile> listener) {
+		this.fileListeners.add(listener);
+	}
+
+	/**
+	 * Wait for the next received file. Files received while no listener is
+	 * registered are queued in the order the transfers completed.
 	 * 
 	 * <pre>
-	 * {@code}
-	 * ResearchAPI example = new ResearchAPI();
+	 * {@code
+	 * ResearchAPI example = new ResearchAPI("console", "INFO");
 	 * 
 	 * while (true) {
-	 * 	String[] fileInfo = example.getReceivedFile();
-	 * 	String receivedFilePath = fileInfo[0];
-	 * 	String receivedFileFormat = fileInfo[1];
+	 * 	ReceivedFile receivedFile = example.takeReceivedFile(1, TimeUnit.MINUTES);
+	 * 	if (receivedFile != null) {
+	 * 		String receivedFilePath = receivedFile.getFilepath();
+	 * 		String receivedFileFormat = receivedFile.getFileFormat();
+	 * 	}
+	 * }
 	 * }
 	 * </pre>
 	 * 
+	 * @param timeout How long to wait for a file.
+	 * @param unit    The unit of the timeout.
+	 * @return The received file or null if no file was received before the timeout.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public ReceivedFile takeReceivedFile(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.receivedFiles.poll(timeout, unit);
+	}
+
+	/**
+	 * Get the received file path and format without waiting.
+	 * 
 	 * @return An array: [filePath, fileFormat] or [null, null].
+	 * @deprecated Use {@link #takeReceivedFile(long, TimeUnit)} or
+	 *             {@link #onFileReceived(Consumer)} instead of polling.
 	 */
+	@Deprecated
 	public String[] getReceivedFile() {
-		String cwd = System.getProperty("user.dir");
-		File dir = new File(cwd, "received-files");
-		// check receivedFilename is set, received files directory exists, and filename
-		// exists within the directory
-		if (this.receivedFilename != null && dir.exists()
-				&& Arrays.asList(dir.list()).contains(this.receivedFilename)) {
-			File file = new File(dir, this.receivedFilename);
-			this.receivedFilename = null;
-			return new String[] { file.toString(), file.getName().split("[.]")[1] };
+		ReceivedFile receivedFile = this.receivedFiles.poll();
+		if (receivedFile != null) {
+			return new String[] { receivedFile.getFilepath(), receivedFile.getFileFormat() };
 		}
 		return new String[2];
 	}
 
+	/**
+	 * Hand the received file to the registered listeners or queue it if there are
+	 * none. Blocks while the queue is full so no file is dropped.
+	 * 
+	 * @param receivedFile The file received.
+	 */
+	private void deliverReceivedFile(ReceivedFile receivedFile) {
+		if (this.fileListeners.isEmpty()) {
+			try {
+				this.receivedFiles.put(receivedFile);
+			} catch (InterruptedException e) {
+				Log.error("Interrupted queueing received file: " + receivedFile, "deliverReceivedFile");
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		for (Consumer<ReceivedFile> listener : this.fileListeners) {
+			try {
+				listener.accept(receivedFile);
+			} catch (RuntimeException e) {
+				Log.error(e.getMessage(), "onFileReceived");
+			}
+		}
+	}
+
 	private class MessageThread extends Thread {
 
 		private Channel channel;
 		private String queueName;
+		private MessageDispatcher dispatcher;
+		private boolean manualAcks;
 
 		/**
 		 * Constructor for creating a MessageThread.
@@ -172,17 +650,64 @@ public class ResearchAPI {
 		private MessageThread() {
 			this.channel = connection.getChannel();
 			this.queueName = connection.getQueueName();
+			this.dispatcher = new MessageDispatcher(messageThreads, Constants.MESSAGE_QUEUE_CAPACITY);
+			this.manualAcks = prefetchCount > 0;
 		}
 
 		@Override
 		public void run() {
 			try {
+				// convert on the consumer thread and process in parallel, keeping the order
+				// of messages from each sender
 				DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-					String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-					process(message);
+					long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+					Map<String, Object> headers = delivery.getProperties().getHeaders();
+
+					// skip messages the user sent or does not want before decoding them
+					if (MessageFilter.isOwnMessage(user, headers)) {
+						acknowledge(deliveryTag);
+						return;
+					}
+					if (!MessageFilter.isRelevant(user, headers)) {
+						String senderID = MessageFilter.getSenderID(headers);
+						long version = MessageFilter.getCatalogueVersion(headers);
+						dispatcher.dispatch(senderID, () -> {
+							ProcessMessage.skipAnnouncement(user, connection, senderID, version);
+							acknowledge(deliveryTag);
+						});
+						return;
+					}
+
+					List<Message> messages = new ArrayList<>();
+					try {
+						byte[] body = MessageCodec.decompress(delivery.getBody(),
+								delivery.getProperties().getContentEncoding());
+						String contentType = delivery.getProperties().getContentType();
+						if (Objects.equals(contentType, Constants.CONTENT_TYPE_BATCH)) {
+							String batchContentType = MessageFilter.getBatchContentType(headers);
+							for (byte[] batched : MessageCodec.unpackBatch(body)) {
+								messages.add(MessageCodec.decode(batched, batchContentType));
+							}
+						} else {
+							messages.add(MessageCodec.decode(body, contentType));
+						}
+					} catch (RuntimeException e) {
+						Log.error("Failed to convert message: " + e.getMessage(), MessageThread.class.getName());
+						reject(deliveryTag);
+						return;
+					}
+
+					// a batch is acknowledged once every message in it has been processed
+					Acknowledgement acknowledgement = new Acknowledgement(deliveryTag, messages.size());
+					for (Message message : messages) {
+						dispatcher.dispatch(message.getSenderID(), () -> handle(message, acknowledgement));
+					}
 				};
 
-				channel.basicConsume(queueName, true, deliverCallback, consumerTag -> {
+				if (manualAcks) {
+					channel.basicQos(prefetchCount);
+				}
+				channel.basicConsume(queueName, !manualAcks, deliverCallback, consumerTag -> {
 				});
 			} catch (IOException e) {
 				Log.error(e.getMessage(), MessageThread.class.getName());
@@ -190,25 +715,126 @@ public class ResearchAPI {
 		}
 
 		/**
-		 * Process the message and set receivedFilename if user is receiving file and
-		 * after file transfer completes.
+		 * Process the message and acknowledge it once processing has finished. A file
+		 * transfer the message started is not waited on.
+		 * 
+		 * @param message         The message received.
+		 * @param acknowledgement The acknowledgement of the delivery holding the
+		 *                        message.
+		 */
+		private void handle(Message message, Acknowledgement acknowledgement) {
+			try {
+				process(message);
+			} catch (RuntimeException e) {
+				acknowledgement.processed(false);
+				throw e;
+			}
+			acknowledgement.processed(true);
+		}
+
+		/**
+		 * Acknowledge a processed message when using manual acknowledgements.
+		 * 
+		 * @param deliveryTag The delivery tag of the message.
+		 */
+		private void acknowledge(long deliveryTag) {
+			if (!manualAcks) {
+				return;
+			}
+			try {
+				channel.basicAck(deliveryTag, false);
+			} catch (IOException e) {
+				Log.error(e.getMessage(), MessageThread.class.getName() + ":acknowledge");
+			}
+		}
+
+		/**
+		 * Reject a message that could not be processed, without requeueing it, when
+		 * using manual acknowledgements.
+		 * 
+		 * @param deliveryTag The delivery tag of the message.
+		 */
+		private void reject(long deliveryTag) {
+			if (!manualAcks) {
+				return;
+			}
+			try {
+				channel.basicReject(deliveryTag, false);
+			} catch (IOException e) {
+				Log.error(e.getMessage(), MessageThread.class.getName() + ":reject");
+			}
+		}
+
+		/**
+		 * Process the message and, if the user is receiving a file, deliver the
+		 * received file once the file transfer completes. The transfer is not
+		 * waited on so the consumer can continue handling messages.
 		 * 
 		 * @param message The message received.
 		 */
-		private void process(String message) {
-			ProcessMessage processMessage = new ProcessMessage(user, connection, message);
-			// receivedObj contains the filename received and the running thread or null if
-			// user did not receive a file
-			ReceiveObj receiveObj = processMessage.process();
-			if (receiveObj != null) {
-				while (receiveObj.getRunningThread().isAlive()) {
-					// wait until thread is finished before setting the filename
+		private void process(Message message) {
+			ProcessMessage processMessage = new ProcessMessage(user, connection, transfers, message);
+			// future completed with the received file or null if the user is not receiving
+			// a file
+			CompletableFuture<ReceivedFile> receiving = processMessage.process();
+			// announced files already received, nothing was requested
+			for (ReceivedFile localCopy : processMessage.getLocalCopies()) {
+				deliverReceivedFile(localCopy);
+			}
+			if (receiving != null) {
+				Message sentData = processMessage.getMessage();
+				String sourceUserID = sentData.getSenderID();
+				FileData originalFile = sentData.getFileData().get(0);
+				String originalFilename = originalFile.getFileName();
+				receiving.whenComplete((receivedFile, error) -> {
+					if (error != null) {
+						Log.error("Failed to receive file: " + originalFilename, MessageThread.class.getName());
+					}
+					user.removeFileRequest(sourceUserID, originalFilename);
+					user.removeRequestMessage(sourceUserID, originalFilename);
+					user.removeTranslationRequest(originalFilename, originalFile.getFormat());
+					if (error == null) {
+						Log.received("Received file: " + receivedFile.getFilename());
+						deliverReceivedFile(receivedFile);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Acknowledge a delivery once every message in it has been processed, or
+		 * reject it if any message failed.
+		 */
+		private class Acknowledgement {
+
+			private final long deliveryTag;
+			private final AtomicInteger remaining;
+			private volatile boolean failed = false;
+
+			private Acknowledgement(long deliveryTag, int messages) {
+				this.deliveryTag = deliveryTag;
+				this.remaining = new AtomicInteger(messages);
+				if (messages == 0) {
+					acknowledge(deliveryTag);
+				}
+			}
+
+			/**
+			 * Record that a message of the delivery has been processed.
+			 * 
+			 * @param succeeded False if processing the message failed.
+			 */
+			private void processed(boolean succeeded) {
+				if (!succeeded) {
+					this.failed = true;
+				}
+				if (this.remaining.decrementAndGet() == 0) {
+					if (this.failed) {
+						reject(this.deliveryTag);
+					} else {
+						acknowledge(this.deliveryTag);
+					}
 				}
-				receivedFilename = receiveObj.getNewFilename();
-				Log.received("Received file: " + receivedFilename);
-				user.removeFileRequest(receiveObj.getSourceUserID(), receiveObj.getOriginalFilename());
-				user.removeRequestMessage();
-				user.removeTranslationRequest(receiveObj.getOriginalFilename(), receiveObj.getFileFormat());
 			}
 		}
 	}
@@ -12,6 +12,7 @@ public final class Constants {
 	public static final String CAN_TRANSLATE = "can_translate";
 	public static final String REQUEST_DATA = "request_data";
 	public static final String SENT_DATA = "sent_data";
+	public static final String REQUEST_CATALOGUE = "request_catalogue";
 
 	// ************************
 	//
@@ -33,9 +34,136 @@ public final class Constants {
 	public static final String DESTINATION_FORMATS = "destination_formats";
 	public static final String FILENAME = "filename";
 	public static final String FILESIZE = "filesize";
+	public static final String FILE_MODIFIED = "modified_time";
+	public static final String FILE_CHECKSUM = "checksum";
+	public static final String REMOVED_DATA = "removed_data";
+	public static final String CATALOGUE_VERSION = "catalogue_version";
+	public static final String CATALOGUE_SNAPSHOT = "catalogue_snapshot";
+	public static final String TRANSFER_BACKENDS = "transfer_backends";
 
 	public static final String CONTENT = "content";
 
+	// ************************
+	//
+	// Message Header Keys
+	//
+	// ************************
+
+	// the user_id, message_type and catalogue_version headers use the metadata keys
+	public static final String HEADER_FORMATS = "formats";
+	// content type of the messages in a batch
+	public static final String HEADER_BATCH_CONTENT_TYPE = "batch_content_type";
+
+	// ************************
+	//
+	// Message Encodings
+	//
+	// ************************
+
+	public static final String CONTENT_TYPE_JSON = "application/json";
+	public static final String CONTENT_TYPE_BINARY = "application/x-research-binary";
+	public static final String CONTENT_ENCODING_DEFLATE = "deflate";
+	// several encoded messages published as one body, see MessageCodec#packBatch
+	public static final String CONTENT_TYPE_BATCH = "application/x-research-batch";
+
+	// size in bytes above which messages are compressed once compression is enabled
+	public static final int COMPRESSION_THRESHOLD = 16 * 1024;
+
+	// largest decompressed message accepted
+	public static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+	// ************************
+	//
+	// API Settings
+	//
+	// ************************
+
+	// maximum number of received files waiting to be taken by the application
+	public static final int RECEIVED_FILE_QUEUE_CAPACITY = 1024;
+
+	// number of threads processing received messages in parallel
+	public static final int MESSAGE_PROCESSING_THREADS = Runtime.getRuntime().availableProcessors();
+
+	// maximum number of received messages waiting per processing thread
+	public static final int MESSAGE_QUEUE_CAPACITY = 256;
+
+	// how often a watched directory is checked for completed files, and how long
+	// a file must keep the same size to be complete
+	public static final long WATCH_POLL_MILLIS = 1000;
+
+	// how long completed files in a watched directory are collected before being
+	// announced together
+	public static final long WATCH_DEBOUNCE_MILLIS = 5000;
+
+	// ************************
+	//
+	// RabbitMQ Settings
+	//
+	// ************************
+
+	// number of channels used for publishing, separate from the consuming channel
+	public static final int PUBLISH_CHANNEL_POOL_SIZE = 4;
+
+	// maximum number of messages waiting to be published with publisher confirms
+	public static final int OUTBOX_CAPACITY = 1024;
+
+	// how long disabling publisher confirms waits for the outstanding confirms
+	public static final long CONFIRM_CLOSE_MILLIS = 5000;
+
+	// how long direct messages wait for others to the same user once batching is enabled
+	public static final long BATCH_LINGER_MILLIS = 5;
+
+	// largest batch of direct messages published as one message
+	public static final int BATCH_MAX_MESSAGES = 128;
+	public static final int BATCH_MAX_BYTES = 256 * 1024;
+
+	// ************************
+	//
+	// Transfer Settings
+	//
+	// ************************
+
+	public static final String WORMHOLE_TRANSFER = "wormhole";
+	public static final String SOCKET_TRANSFER = "socket";
+
+	// how long a socket transfer ticket can be used after it is sent or after
+	// the receiver last requested bytes with it
+	public static final long SOCKET_TICKET_MILLIS = 30 * 60 * 1000;
+
+	// how long to wait when connecting to a user sending a file over a socket
+	public static final int SOCKET_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+	// how long a receiver has to send its request after connecting, and the number
+	// of receivers served at once, with as many more waiting to be served
+	public static final int SOCKET_REQUEST_TIMEOUT_MILLIS = 10 * 1000;
+	public static final int SOCKET_SERVE_THREADS = 16;
+
+	// files at least this large are received over several socket connections at once
+	public static final long SOCKET_CHUNKED_THRESHOLD = 256L * 1024 * 1024;
+	public static final long SOCKET_CHUNK_BYTES = 64L * 1024 * 1024;
+	public static final int SOCKET_TRANSFER_STREAMS = 4;
+
+	// default number of sends and of receives running at once, in total and with one user
+	public static final int MAX_TRANSFERS = 4;
+	public static final int MAX_TRANSFERS_PER_USER = 2;
+
+	// sends and receives waiting to start before messages starting more are held back
+	public static final int MAX_WAITING_TRANSFERS = 64;
+
+	// failed transfers are retried with exponential backoff up to this many times
+	public static final int TRANSFER_RETRIES = 5;
+	public static final long TRANSFER_RETRY_BASE_MILLIS = 1000;
+	public static final long TRANSFER_RETRY_MAX_MILLIS = 60 * 1000;
+
+	// number of transfers whose retries are remembered
+	public static final int TRANSFER_RETRY_KEYS = 1024;
+
+	// digest used for file checksums, sent as a hex string
+	public static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+	// how often the progress of running transfers is reported
+	public static final long TRANSFER_PROGRESS_MILLIS = 1000;
+
 	// **********************************
 	//
 	// RabbitMQ Guest User Information
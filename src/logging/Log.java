@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
@@ -102,6 +103,16 @@ public class Log {
 		logger.logp(Level.INFO, LOG_CLASS, "SENT", message);
 	}
 
+	/**
+	 * Log sent messages, only creating the log message if sent messages are
+	 * logged.
+	 * 
+	 * @param message Supplies the message being sent through RabbitMQ
+	 */
+	public static void sent(Supplier<String> message) {
+		logger.logp(Level.INFO, LOG_CLASS, "SENT", message);
+	}
+
 	/**
 	 * Log received messages.
 	 * 
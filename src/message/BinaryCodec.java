@@ -0,0 +1,389 @@
+package message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of a Message as an alternative to JSON.
+ *
+ * <pre>
+ * magic "RB", version
+ * dictionary:   varint count, strings (formats used in the message)
+ * metadata:     user_id, message_type, message_id, time_stamp,
+ *               data [name, format index, varint size + 1, varint modified time,
+ *                     checksum],
+ *               data_convert_formats [format index, format indices],
+ *               data_request_formats [format indices],
+ *               origin_message_id, source_user_id,
+ *               varint catalogue_version, catalogue_snapshot, removed_data [strings],
+ *               transfer_backends [strings] (version 3)
+ * content:      string
+ * </pre>
+ *
+ * Strings are a varint length followed by UTF-8 bytes. IDs are written as 128
+ * bits when they are UUIDs and timestamps as epoch seconds and nanoseconds.
+ *
+ * @author andrewnguyen
+ *
+ */
+public final class BinaryCodec {
+
+	private static final byte[] MAGIC = { 'R', 'B' };
+	private static final byte VERSION = 3;
+	// oldest version that can still be decoded
+	private static final byte MIN_VERSION = 2;
+
+	// ID and timestamp encodings
+	private static final byte EMPTY = 0;
+	private static final byte BINARY = 1;
+	private static final byte TEXT = 2;
+
+	private BinaryCodec() {
+	}
+
+	/**
+	 * Encode a message.
+	 *
+	 * @param message The message to encode.
+	 * @return The encoded message.
+	 */
+	public static byte[] encode(Message message) {
+		Metadata metadata = message.getMedata();
+		Writer out = new Writer();
+		out.bytes(MAGIC);
+		out.write(VERSION);
+
+		// dictionary of every format in the message, written once
+		Map<String, Integer> dictionary = new HashMap<>();
+		List<String> formats = new ArrayList<>();
+		for (FileData file : metadata.data) {
+			addFormat(dictionary, formats, file.getFormat());
+		}
+		for (Map.Entry<String, ArrayList<String>> entry : metadata.dataConvertFormats.entrySet()) {
+			addFormat(dictionary, formats, entry.getKey());
+			for (String destination : entry.getValue()) {
+				addFormat(dictionary, formats, destination);
+			}
+		}
+		for (String request : metadata.dataRequestFormats) {
+			addFormat(dictionary, formats, request);
+		}
+		out.varint(formats.size());
+		for (String format : formats) {
+			out.string(format);
+		}
+
+		out.id(metadata.userID);
+		out.string(metadata.messageType);
+		out.id(metadata.messageID);
+		out.timestamp(metadata.timestamp);
+
+		out.varint(metadata.data.size());
+		for (FileData file : metadata.data) {
+			String filename = file.getFileName();
+			String format = file.getFormat();
+			if (format == null) {
+				out.string(filename);
+				out.varint(0);
+			} else {
+				out.string(filename.substring(0, filename.length() - format.length() - 1));
+				out.varint(dictionary.get(format) + 1);
+			}
+			// unknown sizes of -1 are written as 0
+			out.varint(Math.max(-1, file.getFileSize()) + 1);
+			out.varint(Math.max(0, file.getLastModified()));
+			out.string(file.getChecksum());
+		}
+
+		out.varint(metadata.dataConvertFormats.size());
+		for (Map.Entry<String, ArrayList<String>> entry : metadata.dataConvertFormats.entrySet()) {
+			out.varint(dictionary.get(entry.getKey()));
+			out.varint(entry.getValue().size());
+			for (String destination : entry.getValue()) {
+				out.varint(dictionary.get(destination));
+			}
+		}
+
+		out.varint(metadata.dataRequestFormats.size());
+		for (String request : metadata.dataRequestFormats) {
+			out.varint(dictionary.get(request));
+		}
+
+		out.id(metadata.originMessageID);
+		out.id(metadata.sourceUserID);
+
+		out.varint(metadata.catalogueVersion);
+		out.write(metadata.catalogueSnapshot ? 1 : 0);
+		out.varint(metadata.removedData.size());
+		for (String removed : metadata.removedData) {
+			out.string(removed);
+		}
+		out.varint(metadata.transferBackends.size());
+		for (String backend : metadata.transferBackends) {
+			out.string(backend);
+		}
+
+		out.string(message.getContent());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode a message.
+	 *
+	 * @param body The encoded message.
+	 * @return The decoded message.
+	 * @throws IllegalArgumentException If the body is not a binary message.
+	 */
+	public static Message decode(byte[] body) {
+		Reader in = new Reader(body);
+		if (body.length < 3 || in.read() != MAGIC[0] || in.read() != MAGIC[1]) {
+			throw new IllegalArgumentException("Not a binary message");
+		}
+		int version = in.read();
+		if (version < MIN_VERSION || version > VERSION) {
+			throw new IllegalArgumentException("Unsupported binary message version " + version);
+		}
+
+		String[] dictionary = new String[in.count()];
+		for (int i = 0; i < dictionary.length; i++) {
+			dictionary[i] = in.string();
+		}
+
+		Metadata metadata = new Metadata();
+		metadata.userID = in.id();
+		metadata.messageType = in.string();
+		metadata.messageID = in.id();
+		metadata.timestamp = in.timestamp();
+
+		int files = in.count();
+		for (int i = 0; i < files; i++) {
+			String name = in.string();
+			// 0 for files without a format, otherwise the dictionary index + 1
+			long format = in.varint();
+			String filename = format == 0 ? name : name + "." + in.format(dictionary, format - 1);
+			FileData filedata = new FileData(filename, in.varint() - 1);
+			filedata.setLastModified(in.varint());
+			String checksum = in.string();
+			filedata.setChecksum(checksum.isEmpty() ? null : checksum);
+			metadata.data.add(filedata);
+		}
+
+		int converts = in.count();
+		for (int i = 0; i < converts; i++) {
+			String original = in.format(dictionary, in.varint());
+			int destinations = in.count();
+			for (int j = 0; j < destinations; j++) {
+				metadata.setDataConvertFormats(original, in.format(dictionary, in.varint()));
+			}
+		}
+
+		int requests = in.count();
+		for (int i = 0; i < requests; i++) {
+			metadata.dataRequestFormats.add(in.format(dictionary, in.varint()));
+		}
+
+		metadata.originMessageID = in.id();
+		metadata.sourceUserID = in.id();
+
+		metadata.catalogueVersion = in.varint();
+		metadata.catalogueSnapshot = in.read() == 1;
+		int removed = in.count();
+		for (int i = 0; i < removed; i++) {
+			metadata.removedData.add(in.string());
+		}
+		if (version >= 3) {
+			int backends = in.count();
+			for (int i = 0; i < backends; i++) {
+				metadata.transferBackends.add(in.string());
+			}
+		}
+
+		return new Message(metadata, in.string());
+	}
+
+	/**
+	 * Add a format to the dictionary if it is not already in it.
+	 *
+	 * @param dictionary The index of each format.
+	 * @param formats    The formats in index order.
+	 * @param format     The format to add.
+	 */
+	private static void addFormat(Map<String, Integer> dictionary, List<String> formats, String format) {
+		if (format != null && !dictionary.containsKey(format)) {
+			dictionary.put(format, formats.size());
+			formats.add(format);
+		}
+	}
+
+	private static class Writer extends ByteArrayOutputStream {
+
+		private Writer() {
+			super(256);
+		}
+
+		private void bytes(byte[] bytes) {
+			write(bytes, 0, bytes.length);
+		}
+
+		private void varint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		private void fixed(long value) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				write((int) (value >>> shift));
+			}
+		}
+
+		private void string(String value) {
+			byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+			varint(bytes.length);
+			bytes(bytes);
+		}
+
+		private void id(String value) {
+			if (value == null || value.isEmpty()) {
+				write(EMPTY);
+				return;
+			}
+			try {
+				UUID uuid = UUID.fromString(value);
+				// only use 128 bits if the ID converts back to the same string
+				if (uuid.toString().equals(value)) {
+					write(BINARY);
+					fixed(uuid.getMostSignificantBits());
+					fixed(uuid.getLeastSignificantBits());
+					return;
+				}
+			} catch (IllegalArgumentException e) {
+				// not a UUID, written as text
+			}
+			write(TEXT);
+			string(value);
+		}
+
+		private void timestamp(String value) {
+			if (value == null || value.isEmpty()) {
+				write(EMPTY);
+				return;
+			}
+			try {
+				Instant instant = Instant.parse(value);
+				if (instant.toString().equals(value)) {
+					write(BINARY);
+					fixed(instant.getEpochSecond());
+					varint(instant.getNano());
+					return;
+				}
+			} catch (DateTimeParseException e) {
+				// not an ISO instant, written as text
+			}
+			write(TEXT);
+			string(value);
+		}
+	}
+
+	private static class Reader {
+
+		private final byte[] buffer;
+		private int position;
+
+		private Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		private int read() {
+			if (this.position >= this.buffer.length) {
+				throw new IllegalArgumentException("Binary message is truncated");
+			}
+			return this.buffer[this.position++] & 0xFF;
+		}
+
+		private long varint() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Malformed varint in binary message");
+		}
+
+		private long fixed() {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | read();
+			}
+			return value;
+		}
+
+		/**
+		 * Read the number of elements that follow. Every element takes at least one
+		 * byte, so a count larger than the bytes left is rejected before anything is
+		 * allocated for it.
+		 */
+		private int count() {
+			long count = varint();
+			if (count < 0 || count > this.buffer.length - this.position) {
+				throw new IllegalArgumentException("Binary message is truncated");
+			}
+			return (int) count;
+		}
+
+		/**
+		 * Look up a format in the dictionary of the message.
+		 */
+		private String format(String[] dictionary, long index) {
+			if (index < 0 || index >= dictionary.length) {
+				throw new IllegalArgumentException("Format index " + index + " is not in the dictionary");
+			}
+			return dictionary[(int) index];
+		}
+
+		private String string() {
+			long length = varint();
+			if (length < 0 || length > this.buffer.length - this.position) {
+				throw new IllegalArgumentException("Binary message is truncated");
+			}
+			String value = new String(this.buffer, this.position, (int) length, StandardCharsets.UTF_8);
+			this.position += (int) length;
+			return value;
+		}
+
+		private String id() {
+			switch (read()) {
+				case EMPTY:
+					return "";
+				case BINARY:
+					return new UUID(fixed(), fixed()).toString();
+				default:
+					return string();
+			}
+		}
+
+		private String timestamp() {
+			switch (read()) {
+				case EMPTY:
+					return "";
+				case BINARY:
+					long seconds = fixed();
+					return Instant.ofEpochSecond(seconds, varint()).toString();
+				default:
+					return string();
+			}
+		}
+	}
+}
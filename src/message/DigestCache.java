@@ -0,0 +1,186 @@
+package message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import constants.Constants;
+import logging.Log;
+
+/**
+ * Compute the checksums of shared files and remember them by path, size and
+ * last modified time, so a file is only read again once it has changed.
+ * Checksums are the SHA-256 digest of the file contents as a hex string.
+ *
+ * @author andrewnguyen
+ *
+ */
+public final class DigestCache {
+
+	private static final String CLASS_NAME = DigestCache.class.getName();
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	// Key: file path, Value: checksum of the file when it had the size and time
+	private static final Map<Path, Entry> CHECKSUMS = new ConcurrentHashMap<>();
+
+	private static final ExecutorService DIGESTERS = Executors
+			.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "digest-cache");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	private DigestCache() {
+	}
+
+	/**
+	 * Get the checksum of a file if it was computed since the file last changed.
+	 *
+	 * @param filepath     The path of the file.
+	 * @param size         The size of the file.
+	 * @param lastModified The time the file was last modified.
+	 * @return The checksum or null if it has not been computed.
+	 */
+	public static String get(Path filepath, long size, long lastModified) {
+		Entry entry = CHECKSUMS.get(filepath);
+		if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+			return null;
+		}
+		return entry.checksum;
+	}
+
+	/**
+	 * Compute the checksums of files that changed since their checksums were
+	 * computed, reading the files in parallel. Files that cannot be read are
+	 * skipped.
+	 *
+	 * @param filepaths The paths of the files.
+	 */
+	public static void computeAll(Collection<Path> filepaths) {
+		List<CompletableFuture<Void>> computing = new ArrayList<>();
+		for (Path filepath : filepaths) {
+			computing.add(CompletableFuture.runAsync(() -> compute(filepath), DIGESTERS));
+		}
+		CompletableFuture.allOf(computing.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	/**
+	 * Compute the checksum of a file in the background unless it was computed
+	 * since the file last changed.
+	 *
+	 * @param filepath     The path of the file.
+	 * @param size         The size of the file.
+	 * @param lastModified The time the file was last modified.
+	 * @return A future completed with the checksum, or failed if the file cannot
+	 *         be read.
+	 */
+	public static CompletableFuture<String> computeAsync(Path filepath, long size, long lastModified) {
+		String known = get(filepath, size, lastModified);
+		if (known != null) {
+			return CompletableFuture.completedFuture(known);
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				String checksum = checksum(filepath);
+				CHECKSUMS.put(filepath, new Entry(size, lastModified, checksum));
+				return checksum;
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, DIGESTERS);
+	}
+
+	/**
+	 * Compute the checksum of a file unless it is already known.
+	 *
+	 * @param filepath The path of the file.
+	 */
+	private static void compute(Path filepath) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(filepath, BasicFileAttributes.class);
+			long size = attributes.size();
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			if (get(filepath, size, lastModified) == null) {
+				CHECKSUMS.put(filepath, new Entry(size, lastModified, checksum(filepath)));
+			}
+		} catch (IOException e) {
+			Log.error("Failed to compute checksum of '" + filepath + "': " + e.getMessage(), CLASS_NAME + ":compute");
+		}
+	}
+
+	/**
+	 * Compute the checksum of a file without caching it.
+	 *
+	 * @param filepath The path of the file.
+	 * @return The checksum.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static String checksum(Path filepath) throws IOException {
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel file = FileChannel.open(filepath, StandardOpenOption.READ)) {
+			while (file.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return toChecksum(digest);
+	}
+
+	/**
+	 * Create a digest for computing a checksum as the bytes arrive.
+	 *
+	 * @return The digest.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(Constants.CHECKSUM_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Finish a digest as a checksum.
+	 *
+	 * @param digest The digest of the whole file.
+	 * @return The checksum as a hex string.
+	 */
+	public static String toChecksum(MessageDigest digest) {
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * A computed checksum and the file size and time it was computed for.
+	 */
+	private static class Entry {
+
+		private final long size;
+		private final long lastModified;
+		private final String checksum;
+
+		private Entry(long size, long lastModified, String checksum) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+		}
+	}
+}
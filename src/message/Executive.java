@@ -5,8 +5,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import constants.Constants;
 import logging.Log;
@@ -19,20 +26,28 @@ import rabbitmq.RabbitMQConnection;
  */
 public class Executive {
 
-	private boolean 			done;
-	private Process 			process;
-	private Thread				running;
+	// completed with the exit value once the process ends
+	private final CompletableFuture<Integer> exited = new CompletableFuture<>();
 
-	// special command
-	private static final String _cwdToFollow  = "CWD_TO_FOLLOW";
-	
 	// M1 Mac paths
 	private static final String HOMEBREW_BIN  = "/opt/homebrew/bin";
 	private static final String HOMEBREW_SBIN = "/opt/homebrew/sbin";
-	private static final String HOMEBREW_PATH = ":/opt/homebrew/bin:/opt/homebrew/sbin";
+
+	// reads the output of every process, threads are only kept while processes run
+	private static final ExecutorService OUTPUT_READERS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "executive-output");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	private static final String CLASS_NAME 	  = Executive.class.getName();
 
+	// progress bar printed by magic-wormhole, as in " 45%|####5     | 4.50M/10.0M"
+	private static final Pattern PROGRESS	  = Pattern.compile("^\\s*(\\d{1,3})%\\|");
+
+	// called with the percentage transferred, null if not needed
+	private IntConsumer 		progress;
+
 	// current working dir
 	private String 				_cwd;
 	
@@ -43,12 +58,7 @@ public class Executive {
 	private String 				originMessageID;
 	private String 				requestUserID;
 	
-	
-	// message sent to request the data
-	private Message 			requestMessage;
-	
 	public Executive() {
-		done = false;
 	}
 	
 	/**
@@ -59,6 +69,14 @@ public class Executive {
 		_cwd = cwd;
 	}
 	
+	/**
+	 * Set the listener for the percentage of the file transferred.
+	 * @param progress		called with each percentage printed.
+	 */
+	public void setProgress(IntConsumer progress) {
+		this.progress = progress;
+	}
+	
 	/**
 	 * Set the user's RabbitMQ Connection.
 	 * @param connection		The connection corresponding to the user.
@@ -92,10 +110,6 @@ public class Executive {
 		this.requestUserID = message.getSenderID();
 	}
 	
-	public void setRequestMessage(Message message) {
-		this.requestMessage = message;
-	}
-	
 	/**
 	 * Check whether we are running on a Mac
 	 * Only used for the "talking" test
@@ -130,213 +144,149 @@ public class Executive {
 	}
 	
 	
-	private void requestDataAgain() {
-		String originSenderID = this.requestMessage.getSourceUserID();
-		connection.direct(requestMessage, originSenderID);
-	}
-	
 
-	// build a script file around the command
-	//the command is execute in its own process
-	private File tempFileScript(String command) {
-
-		File file = null;
-		try {
-			file = File.createTempFile("bCNU", null);
+	/**
+	 * Set the directory and PATH of a process about to be started.
+	 * @param pb	the process builder
+	 */
+	private void setEnvironment(ProcessBuilder pb) {
+		//change working dir?
+		if (_cwd != null) {
+			pb.directory(new File(_cwd));
+		}
 
-			PrintWriter printWriter = new PrintWriter(file);
-			printWriter.write("#!/bin/bash\n");
+		// update environment path if running on M1 Mac
+		if (isMac() && isM1()) {
+			String path = System.getenv("PATH");
+			path = (path == null || path.isEmpty() ? "" : path + File.pathSeparator) + HOMEBREW_BIN
+					+ File.pathSeparator + HOMEBREW_SBIN;
+			pb.environment().put("PATH", path);
+		}
+	}
 
-			//change working dir?
-			if (_cwd != null) {
-				printWriter.write("echo " + _cwdToFollow + "\n");
-				printWriter.write("cd " + _cwd + "\n");
-				printWriter.write("pwd" + "\n");
-			}
-			
-			// update environment path if running on M1 Mac
-			if (isMac() && isM1()) {
-				String path = System.getenv("PATH") + HOMEBREW_PATH;
-				printWriter.write("export PATH=" + path + "\n");
+	/**
+	 * Find a program on the PATH of the process. The program is looked up here
+	 * because the process is started with the PATH of the JVM, not the PATH set
+	 * in its environment.
+	 * @param program	the program name
+	 * @param path		the PATH of the process
+	 * @return			the path of the program, or the name if it is not found
+	 */
+	private static String resolve(String program, String path) {
+		if (program.indexOf(File.separatorChar) >= 0 || path == null) {
+			return program;
+		}
+		for (String dir : path.split(File.pathSeparator)) {
+			File candidate = new File(dir.isEmpty() ? "." : dir, program);
+			if (candidate.isFile() && candidate.canExecute()) {
+				return candidate.getPath();
 			}
-
-			printWriter.write(command + "\n");
-			printWriter.close();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-
-		return file;
+		return program;
 	}
 
-	//execute the command contained in the process record
-	//capture the output
-	private void execute(String command) {
-
-		final File file = tempFileScript(command);
-		if (file == null) {
+	/**
+	 * Handle a line of output from the process.
+	 * @param line		the line
+	 * @param command	the command that printed it
+	 */
+	private void handleLine(String line, String command) {
+		// progress bars are redrawn with '\r', so each redraw is read as a line
+		Matcher matcher = PROGRESS.matcher(line);
+		if (matcher.find()) {
+			if (progress != null) {
+				progress.accept(Integer.parseInt(matcher.group(1)));
+			}
 			return;
 		}
+		if (line.contains("ERROR")) {
+			// failed transfers are retried by whoever is waiting on the exit value
+			Log.error(line, CLASS_NAME, command);
+		} else {
+			Log.debug(line, CLASS_NAME, command);
+		}
+		// only a send has a file to send the code for
+		if (line.contains("wormhole receive") && filepath != null) {
+			sendMessage(line.trim());
+		}
+	}
+
+	//execute the command in its own process
+	//capture the output
+	private CompletableFuture<Integer> execute(List<String> arguments) {
 
+		final String command = String.join(" ", arguments);
 		try {
-			ProcessBuilder pb = new ProcessBuilder();
-			pb.command("bash", file.getPath());
+			ProcessBuilder pb = new ProcessBuilder(new ArrayList<>(arguments));
+			setEnvironment(pb);
+			pb.command().set(0, resolve(arguments.get(0), pb.environment().get("PATH")));
 			pb.redirectErrorStream(true);
-			process = pb.start();
-			if (process == null) {
-				return;
-			}
-			
-			final BufferedReader stdOutReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-			final BufferedReader stdErrReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-
-			// this will just block until process ends
-			Runnable runnable = new Runnable() {
-
-				@Override
-				public void run() {
-					try {
-						process.waitFor();
-						done = true;
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+			Process process = pb.start();
+
+			//get the process output and print to console, lines are handled as soon as they are printed
+			CompletableFuture<Void> output = CompletableFuture.runAsync(() -> {
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						handleLine(line, command);
 					}
-
+				} catch (IOException e) {
+					Log.error(e.getMessage(), CLASS_NAME, command);
 				}
-
-			};
-
-
-			//get the process output and print to console
-			Runnable reader = new Runnable() {
-
-				@Override
-				public void run() {
-					try {
-						while (!done) {
-							String line = stdOutReader.readLine();
-							if (line != null) {
-								Log.debug(line, CLASS_NAME, command);
-								if (line.contains("wormhole receive")) {
-									sendMessage(line);
-								}
-								if (line.contains("ERROR") && command.contains("receive")) {
-									// check if user is attempting to receive the message and it is magic-wormhole failed
-									requestDataAgain();
-								}
-								
-							} else {
-								try {
-									Thread.sleep(50);
-								} catch (InterruptedException e) {
-									e.printStackTrace();
-								}
-							}
-						}
-						// flush final lines after process ended
-						process.getOutputStream().flush();
-						boolean reading = true;
-						while (reading) {
-							String line = stdOutReader.readLine();
-							if (line == null) {
-								reading = false;
-							} else {
-								Log.debug(line, CLASS_NAME, command);
-							}
-						}
-						// really done
-						stdOutReader.close();
-
-						reading = true;
-						while (reading) {
-							String line = stdErrReader.readLine();
-							if (line == null) {
-								reading = false;
-							} else {
-								Log.error(line, CLASS_NAME, command);
-							}
-						}
-						stdErrReader.close();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-					file.delete();
-				} // end reader run
-
-			};
-
-			running = new Thread(runnable);
-			running.start();
-			(new Thread(reader)).start();
+			}, OUTPUT_READERS);
+
+			// complete once the process ended and all of its output was handled
+			process.onExit().thenCombine(output, (ended, read) -> ended.exitValue()).whenComplete((exitValue, error) -> {
+				if (error != null) {
+					exited.completeExceptionally(error);
+				} else {
+					exited.complete(exitValue);
+				}
+			});
 
 		} catch (Error | Exception error) {
 			Log.error(error.getMessage(), CLASS_NAME, command);
+			exited.completeExceptionally(error);
 		}
-
-	}
-	
-	/**
-	 * Get the thread waiting for the process to finish
-	 * @return		the running thread
-	 */
-	private Thread getRunningThread() {
-		return this.running;
-	}
-	
-	/**
-	 * Execute a command in its own process, used in checkKnownHosts method in RabbitMQConnection file
-	 * 
-	 * @param command	the command
-	 * @param dir 		first cd to this directory (if not null)
-	 * @return 			the running thread
-	 */
-	public static Thread execute(final String command, File dir) {
-		
-		Executive executive = new Executive();
-
-		if ((dir != null) && dir.exists() && dir.isDirectory()) {
-			executive.setCWD(dir.getPath());
-		}
-
-		executive.execute(command);
-		return executive.getRunningThread();
+		return exited;
 	}
 	
 	/**
 	 * Execute a command in its own process, used in receive method in Wormhole file
 	 * 
-	 * @param command	the command
-	 * @param dir 		first cd to this directory (if not null)
-	 * @return 			the running thread
+	 * @param command	the program and its arguments
+	 * @param dir 		run in this directory (if not null)
+	 * @param progress	called with the percentage received (if not null)
+	 * @return 			a future completed with the exit value when the process ends
 	 */
-	public static Thread execute(final String command, File dir, RabbitMQConnection connection, Message requestMessage) {
+	public static CompletableFuture<Integer> execute(final List<String> command, File dir, IntConsumer progress) {
 		
 		Executive executive = new Executive();
+		executive.setProgress(progress);
 
 		if ((dir != null) && dir.exists() && dir.isDirectory()) {
 			executive.setCWD(dir.getPath());
 		}
-		
-		executive.setRequestMessage(requestMessage);
-		executive.setConnection(connection);
-		executive.execute(command);
-		return executive.getRunningThread();
+
+		return executive.execute(command);
 	}
 	
-	
 	/**
 	 * Execute a command in its own process, used in send method in Wormhole file
 	 * 
-	 * @param command 		the command
-	 * @param dir 			first cd to this directory (if not null)
+	 * @param command 		the program and its arguments
+	 * @param dir 			run in this directory (if not null)
 	 * @param connection	the rabbitmq connection for this user
 	 * @param userID		the ID of the user
 	 * @param message		the message requesting the data
 	 * @param filepath		the file path where the data is held
+	 * @param progress		called with the percentage sent (if not null)
+	 * @return 				a future completed with the exit value when the process ends
 	 */
-	public static void execute(final String command, File dir, RabbitMQConnection connection, String userID, Message message, Path filepath) {
+	public static CompletableFuture<Integer> execute(final List<String> command, File dir, RabbitMQConnection connection, String userID, Message message, Path filepath, IntConsumer progress) {
 		
 		Executive executive = new Executive();
+		executive.setProgress(progress);
 		if ((dir != null) && dir.exists() && dir.isDirectory()) {
 			executive.setCWD(dir.getPath());
 		}
@@ -345,7 +295,6 @@ public class Executive {
 		executive.setFilepath(filepath.toString());
 		executive.setUserID(userID);
 		executive.setConnection(connection);
-		executive.execute(command);
-
+		return executive.execute(command);
 	}
 }
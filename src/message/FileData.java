@@ -1,5 +1,9 @@
 package message;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * Object to hold the file data.
@@ -7,40 +11,146 @@ package message;
  *
  */
 public class FileData {
-	
-	private String filename;
-	private String filesize;
-	
+
+	private final String filename;
+	// size in bytes, -1 if the sender did not send a valid size
+	private final long filesize;
+	// interned extension after the last '.', null if the file has none
+	private final String format;
+
+	// optional, 0 if unknown
+	private long lastModified = 0;
+	// optional, null if unknown
+	private String checksum = null;
+
 	/**
 	 * Constructor
-	 * 
+	 *
 	 * @param filename		The name of the file.
-	 * @param filesize		The size of the file.
+	 * @param filesize		The size of the file in bytes.
 	 */
-	public FileData(String filename, String filesize) {
+	public FileData(String filename, long filesize) {
 		this.filename = filename;
 		this.filesize = filesize;
+		this.format = formatOf(filename);
+	}
+
+	/**
+	 * Constructor for file data received as text.
+	 *
+	 * @param filename		The name of the file.
+	 * @param filesize		The size of the file as sent, -1 is used if it is not a number.
+	 */
+	public FileData(String filename, String filesize) {
+		this(filename, parseSize(filesize));
+	}
+
+	/**
+	 * Read the file data of a file the user shares.
+	 *
+	 * @param filepath		The path of the file.
+	 * @return The file data with the size and last modified time of the file, and
+	 *         its checksum if it has been computed since the file last changed.
+	 * @throws IOException
+	 */
+	public static FileData of(Path filepath) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(filepath, BasicFileAttributes.class);
+		FileData filedata = new FileData(filepath.getFileName().toString(), attributes.size());
+		filedata.setLastModified(attributes.lastModifiedTime().toMillis());
+		filedata.setChecksum(DigestCache.get(filepath, filedata.getFileSize(), filedata.getLastModified()));
+		return filedata;
+	}
+
+	/**
+	 * Get the format of a file from its name.
+	 *
+	 * @param filename		The name of the file.
+	 * @return The interned extension after the last '.' or null if there is none.
+	 */
+	public static String formatOf(String filename) {
+		int dot = filename == null ? -1 : filename.lastIndexOf('.');
+		return dot < 0 ? null : filename.substring(dot + 1).intern();
+	}
+
+	/**
+	 * Parse a file size sent as text.
+	 *
+	 * @param filesize		The file size.
+	 * @return The file size or -1 if it is not a number.
+	 */
+	private static long parseSize(String filesize) {
+		try {
+			return Long.parseLong(filesize.trim());
+		} catch (NumberFormatException | NullPointerException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Set the time the file was last modified.
+	 *
+	 * @param lastModified	Milliseconds since the epoch.
+	 */
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Set the checksum of the file contents.
+	 *
+	 * @param checksum		The checksum as a hex string.
+	 */
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
 	}
-	
+
 	/**
 	 * Get the name of the file.
-	 * 
+	 *
 	 * @return
 	 */
 	public String getFileName() {
 		return this.filename;
 	}
-	
+
 	/**
 	 * Get the size of the file.
-	 * 
-	 * @return
+	 *
+	 * @return The size in bytes or -1 if it is unknown.
 	 */
-	public String getFileSize() {
+	public long getFileSize() {
 		return this.filesize;
 	}
-	
-	
+
+	/**
+	 * Get the format of the file. Formats are interned, so equal formats are the
+	 * same String.
+	 *
+	 * @return The extension after the last '.' or null if there is none.
+	 */
+	public String getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * Get the time the file was last modified.
+	 *
+	 * @return Milliseconds since the epoch or 0 if it is unknown.
+	 */
+	public long getLastModified() {
+		return this.lastModified;
+	}
+
+	/**
+	 * Get the checksum of the file contents.
+	 *
+	 * @return The checksum as a hex string or null if it is unknown.
+	 */
+	public String getChecksum() {
+		return this.checksum;
+	}
+
+
 	/**
 	 * To print an instance of a file.
 	 */
@@ -0,0 +1,426 @@
+package message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import constants.Constants;
+
+/**
+ * Decode a JSON message directly from its UTF-8 bytes into a Message in a
+ * single pass, without building a String of the body or a JSONObject tree.
+ * Keys that are not part of the message format are skipped.
+ *
+ * @author andrewnguyen
+ *
+ */
+public final class JsonMessageReader {
+
+	private static final byte[] METADATA = key(Constants.METADATA);
+	private static final byte[] CONTENT = key(Constants.CONTENT);
+	private static final byte[] USER_ID = key(Constants.USER_ID);
+	private static final byte[] MESSAGE_ID = key(Constants.MESSAGE_ID);
+	private static final byte[] MESSAGE_TYPE = key(Constants.MESSAGE_TYPE);
+	private static final byte[] METADATA_FILEDATA = key(Constants.METADATA_FILEDATA);
+	private static final byte[] DATA_CONVERT_FORMATS = key(Constants.DATA_CONVERT_FORMATS);
+	private static final byte[] DATA_REQUEST_FORMATS = key(Constants.DATA_REQUEST_FORMATS);
+	private static final byte[] ORIGIN_MESSAGE_ID = key(Constants.ORIGIN_MESSAGE_ID);
+	private static final byte[] SOURCE_USER_ID = key(Constants.SOURCE_USER_ID);
+	private static final byte[] TIMESTAMP = key(Constants.TIMESTAMP);
+	private static final byte[] ORIGINAL_FORMAT = key(Constants.ORIGINAL_FORMAT);
+	private static final byte[] DESTINATION_FORMATS = key(Constants.DESTINATION_FORMATS);
+	private static final byte[] FILENAME = key(Constants.FILENAME);
+	private static final byte[] FILESIZE = key(Constants.FILESIZE);
+	private static final byte[] FILE_MODIFIED = key(Constants.FILE_MODIFIED);
+	private static final byte[] FILE_CHECKSUM = key(Constants.FILE_CHECKSUM);
+	private static final byte[] REMOVED_DATA = key(Constants.REMOVED_DATA);
+	private static final byte[] CATALOGUE_VERSION = key(Constants.CATALOGUE_VERSION);
+	private static final byte[] CATALOGUE_SNAPSHOT = key(Constants.CATALOGUE_SNAPSHOT);
+	private static final byte[] TRANSFER_BACKENDS = key(Constants.TRANSFER_BACKENDS);
+
+	private final byte[] buffer;
+	private int position;
+
+	// position and length of the last key read
+	private int keyStart;
+	private int keyLength;
+
+	private JsonMessageReader(byte[] buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Decode a JSON message.
+	 *
+	 * @param body The message as UTF-8 encoded JSON.
+	 * @return The decoded message.
+	 * @throws IllegalArgumentException If the body is not a valid JSON message.
+	 */
+	public static Message read(byte[] body) {
+		return new JsonMessageReader(body).readMessage();
+	}
+
+	private Message readMessage() {
+		Metadata metadata = new Metadata();
+		String content = null;
+		boolean hasMetadata = false;
+
+		expect('{');
+		while (nextKey()) {
+			if (isKey(METADATA)) {
+				readMetadata(metadata);
+				hasMetadata = true;
+			} else if (isKey(CONTENT)) {
+				content = readString();
+			} else {
+				skipValue();
+			}
+		}
+		if (!hasMetadata) {
+			throw error("Message has no metadata");
+		}
+		return new Message(metadata, content);
+	}
+
+	private void readMetadata(Metadata metadata) {
+		expect('{');
+		while (nextKey()) {
+			if (isKey(USER_ID)) {
+				metadata.userID = readString();
+			} else if (isKey(MESSAGE_TYPE)) {
+				metadata.messageType = readString();
+			} else if (isKey(MESSAGE_ID)) {
+				metadata.messageID = readString();
+			} else if (isKey(METADATA_FILEDATA)) {
+				expect('[');
+				while (nextElement()) {
+					readFileData(metadata);
+				}
+			} else if (isKey(DATA_CONVERT_FORMATS)) {
+				expect('[');
+				while (nextElement()) {
+					readConvertFormats(metadata);
+				}
+			} else if (isKey(DATA_REQUEST_FORMATS)) {
+				expect('[');
+				while (nextElement()) {
+					metadata.dataRequestFormats.add(readString());
+				}
+			} else if (isKey(ORIGIN_MESSAGE_ID)) {
+				metadata.originMessageID = readString();
+			} else if (isKey(SOURCE_USER_ID)) {
+				metadata.sourceUserID = readString();
+			} else if (isKey(TIMESTAMP)) {
+				metadata.timestamp = readString();
+			} else if (isKey(CATALOGUE_VERSION)) {
+				metadata.catalogueVersion = readLong();
+			} else if (isKey(CATALOGUE_SNAPSHOT)) {
+				metadata.catalogueSnapshot = Boolean.parseBoolean(readString());
+			} else if (isKey(REMOVED_DATA)) {
+				expect('[');
+				while (nextElement()) {
+					metadata.removedData.add(readString());
+				}
+			} else if (isKey(TRANSFER_BACKENDS)) {
+				expect('[');
+				while (nextElement()) {
+					metadata.transferBackends.add(readString());
+				}
+			} else {
+				skipValue();
+			}
+		}
+	}
+
+	private void readFileData(Metadata metadata) {
+		String filename = null;
+		String filesize = null;
+		long lastModified = 0;
+		String checksum = null;
+		expect('{');
+		while (nextKey()) {
+			if (isKey(FILENAME)) {
+				filename = readString();
+			} else if (isKey(FILESIZE)) {
+				filesize = readString();
+			} else if (isKey(FILE_MODIFIED)) {
+				lastModified = readLong();
+			} else if (isKey(FILE_CHECKSUM)) {
+				checksum = readString();
+			} else {
+				skipValue();
+			}
+		}
+		FileData filedata = new FileData(filename, filesize);
+		filedata.setLastModified(lastModified);
+		filedata.setChecksum(checksum);
+		metadata.data.add(filedata);
+	}
+
+	private void readConvertFormats(Metadata metadata) {
+		String original = null;
+		ArrayList<String> destinations = new ArrayList<>();
+		expect('{');
+		while (nextKey()) {
+			if (isKey(ORIGINAL_FORMAT)) {
+				original = readString();
+			} else if (isKey(DESTINATION_FORMATS)) {
+				expect('[');
+				while (nextElement()) {
+					destinations.add(readString());
+				}
+			} else {
+				skipValue();
+			}
+		}
+		if (original != null) {
+			metadata.dataConvertFormats.put(original, destinations);
+		}
+	}
+
+	// ****************************************
+	//
+	// tokens
+	//
+	// ****************************************
+
+	/**
+	 * Move to the next key of the current object.
+	 *
+	 * @return True if a key was read, false at the end of the object.
+	 */
+	private boolean nextKey() {
+		int b = skipWhitespace();
+		if (b == ',') {
+			this.position++;
+			b = skipWhitespace();
+		}
+		if (b == '}') {
+			this.position++;
+			return false;
+		}
+		expect('"');
+		this.keyStart = this.position;
+		while (peek() != '"') {
+			if (this.buffer[this.position] == '\\') {
+				this.position++;
+			}
+			this.position++;
+		}
+		this.keyLength = this.position - this.keyStart;
+		this.position++;
+		expect(':');
+		return true;
+	}
+
+	/**
+	 * Move to the next element of the current array.
+	 *
+	 * @return True if there is another element, false at the end of the array.
+	 */
+	private boolean nextElement() {
+		int b = skipWhitespace();
+		if (b == ',') {
+			this.position++;
+			b = skipWhitespace();
+		}
+		if (b == ']') {
+			this.position++;
+			return false;
+		}
+		return true;
+	}
+
+	private boolean isKey(byte[] key) {
+		if (key.length != this.keyLength) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (this.buffer[this.keyStart + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read a value as text. Strings are unescaped, numbers and booleans are
+	 * returned as written, and null is returned as null.
+	 *
+	 * @return The value.
+	 */
+	private String readString() {
+		int b = skipWhitespace();
+		if (b != '"') {
+			int start = this.position;
+			skipValue();
+			String literal = new String(this.buffer, start, this.position - start, StandardCharsets.US_ASCII).trim();
+			return literal.equals("null") ? null : literal;
+		}
+
+		this.position++;
+		int start = this.position;
+		while (peek() != '"') {
+			if (this.buffer[this.position] == '\\') {
+				return readEscapedString(start);
+			}
+			this.position++;
+		}
+		String value = new String(this.buffer, start, this.position - start, StandardCharsets.UTF_8);
+		this.position++;
+		return value;
+	}
+
+	/**
+	 * Read a number value.
+	 *
+	 * @return The value as a long, 0 if it is null.
+	 */
+	private long readLong() {
+		String value = readString();
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return (long) Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw error("Expected a number");
+		}
+	}
+
+	/**
+	 * Read the rest of a string containing escape sequences.
+	 *
+	 * @param start The position of the first character of the string.
+	 * @return The unescaped string.
+	 */
+	private String readEscapedString(int start) {
+		StringBuilder value = new StringBuilder(new String(this.buffer, start, this.position - start,
+				StandardCharsets.UTF_8));
+		int runStart = this.position;
+		while (peek() != '"') {
+			if (this.buffer[this.position] != '\\') {
+				this.position++;
+				continue;
+			}
+			value.append(new String(this.buffer, runStart, this.position - runStart, StandardCharsets.UTF_8));
+			this.position++;
+			int escaped = next();
+			switch (escaped) {
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'u':
+					if (this.position + 4 > this.buffer.length) {
+						throw error("Truncated unicode escape");
+					}
+					String hex = new String(this.buffer, this.position, 4, StandardCharsets.US_ASCII);
+					try {
+						value.append((char) Integer.parseInt(hex, 16));
+					} catch (NumberFormatException e) {
+						throw error("Invalid unicode escape");
+					}
+					this.position += 4;
+					break;
+				default:
+					value.append((char) escaped);
+					break;
+			}
+			runStart = this.position;
+		}
+		value.append(new String(this.buffer, runStart, this.position - runStart, StandardCharsets.UTF_8));
+		this.position++;
+		return value.toString();
+	}
+
+	/**
+	 * Skip a value of any type, including nested objects and arrays.
+	 */
+	private void skipValue() {
+		int b = skipWhitespace();
+		switch (b) {
+			case '"':
+				this.position++;
+				while (peek() != '"') {
+					if (this.buffer[this.position] == '\\') {
+						this.position++;
+					}
+					this.position++;
+				}
+				this.position++;
+				break;
+			case '{':
+				this.position++;
+				while (nextKey()) {
+					skipValue();
+				}
+				break;
+			case '[':
+				this.position++;
+				while (nextElement()) {
+					skipValue();
+				}
+				break;
+			default:
+				// number, true, false or null
+				while (this.position < this.buffer.length) {
+					int c = this.buffer[this.position];
+					if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+						break;
+					}
+					this.position++;
+				}
+				break;
+		}
+	}
+
+	private int skipWhitespace() {
+		while (this.position < this.buffer.length) {
+			int b = this.buffer[this.position];
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+				return b;
+			}
+			this.position++;
+		}
+		throw error("Unexpected end of message");
+	}
+
+	private void expect(char expected) {
+		if (skipWhitespace() != expected) {
+			throw error("Expected '" + expected + "'");
+		}
+		this.position++;
+	}
+
+	private int peek() {
+		if (this.position >= this.buffer.length) {
+			throw error("Unexpected end of message");
+		}
+		return this.buffer[this.position];
+	}
+
+	private int next() {
+		int b = peek();
+		this.position++;
+		return b;
+	}
+
+	private IllegalArgumentException error(String reason) {
+		return new IllegalArgumentException(reason + " at position " + this.position + " of JSON message");
+	}
+
+	private static byte[] key(String key) {
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,339 @@
+package message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import constants.Constants;
+
+/**
+ * Encode a Message as UTF-8 JSON directly into a reusable buffer owned by the
+ * sending thread, without building a JSONObject tree or an intermediate String.
+ * The output is the same JSON as {@link Message#toJSON()} and is read by
+ * {@link JsonMessageReader} and the Python client alike.
+ *
+ * @author andrewnguyen
+ *
+ */
+public final class JsonMessageWriter {
+
+	private static final int INITIAL_CAPACITY = 4096;
+	// buffers grown past this size by a large message are not kept
+	private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+	private static final byte[] METADATA = key(Constants.METADATA);
+	private static final byte[] CONTENT = key(Constants.CONTENT);
+	private static final byte[] USER_ID = key(Constants.USER_ID);
+	private static final byte[] MESSAGE_ID = key(Constants.MESSAGE_ID);
+	private static final byte[] MESSAGE_TYPE = key(Constants.MESSAGE_TYPE);
+	private static final byte[] METADATA_FILEDATA = key(Constants.METADATA_FILEDATA);
+	private static final byte[] DATA_CONVERT_FORMATS = key(Constants.DATA_CONVERT_FORMATS);
+	private static final byte[] DATA_REQUEST_FORMATS = key(Constants.DATA_REQUEST_FORMATS);
+	private static final byte[] ORIGIN_MESSAGE_ID = key(Constants.ORIGIN_MESSAGE_ID);
+	private static final byte[] SOURCE_USER_ID = key(Constants.SOURCE_USER_ID);
+	private static final byte[] TIMESTAMP = key(Constants.TIMESTAMP);
+	private static final byte[] ORIGINAL_FORMAT = key(Constants.ORIGINAL_FORMAT);
+	private static final byte[] DESTINATION_FORMATS = key(Constants.DESTINATION_FORMATS);
+	private static final byte[] FILENAME = key(Constants.FILENAME);
+	private static final byte[] FILESIZE = key(Constants.FILESIZE);
+	private static final byte[] FILE_MODIFIED = key(Constants.FILE_MODIFIED);
+	private static final byte[] FILE_CHECKSUM = key(Constants.FILE_CHECKSUM);
+	private static final byte[] REMOVED_DATA = key(Constants.REMOVED_DATA);
+	private static final byte[] CATALOGUE_VERSION = key(Constants.CATALOGUE_VERSION);
+	private static final byte[] CATALOGUE_SNAPSHOT = key(Constants.CATALOGUE_SNAPSHOT);
+	private static final byte[] TRANSFER_BACKENDS = key(Constants.TRANSFER_BACKENDS);
+
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e',
+			'f' };
+
+	private static final ThreadLocal<JsonMessageWriter> WRITERS = ThreadLocal.withInitial(JsonMessageWriter::new);
+
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private int position;
+
+	// true if the next member or element is the first of its object or array
+	private boolean first;
+
+	private JsonMessageWriter() {
+	}
+
+	/**
+	 * Encode a message as JSON. The message is written into the calling thread's
+	 * buffer and copied out once, at its exact size, for publishing.
+	 *
+	 * @param message The message to encode.
+	 * @return The message as UTF-8 encoded JSON.
+	 */
+	public static byte[] write(Message message) {
+		JsonMessageWriter writer = WRITERS.get();
+		writer.position = 0;
+		writer.writeMessage(message);
+		byte[] body = Arrays.copyOf(writer.buffer, writer.position);
+		if (writer.buffer.length > MAX_RETAINED_CAPACITY) {
+			writer.buffer = new byte[INITIAL_CAPACITY];
+		}
+		return body;
+	}
+
+	private void writeMessage(Message message) {
+		Metadata metadata = message.getMedata();
+		beginObject();
+		member(METADATA);
+		writeMetadata(metadata);
+		stringMember(CONTENT, message.getContent());
+		endObject();
+	}
+
+	private void writeMetadata(Metadata metadata) {
+		beginObject();
+		stringMember(USER_ID, metadata.userID);
+		stringMember(MESSAGE_TYPE, metadata.messageType);
+		stringMember(MESSAGE_ID, metadata.messageID);
+
+		member(METADATA_FILEDATA);
+		beginArray();
+		ArrayList<FileData> data = metadata.data;
+		for (int i = 0; i < data.size(); i++) {
+			FileData file = data.get(i);
+			element();
+			beginObject();
+			stringMember(FILENAME, file.getFileName());
+			// sizes are sent as text for compatibility with existing clients
+			member(FILESIZE);
+			write('"');
+			number(file.getFileSize());
+			write('"');
+			if (file.getLastModified() != 0) {
+				member(FILE_MODIFIED);
+				number(file.getLastModified());
+			}
+			stringMember(FILE_CHECKSUM, file.getChecksum());
+			endObject();
+		}
+		endArray();
+
+		member(DATA_CONVERT_FORMATS);
+		beginArray();
+		for (Map.Entry<String, ArrayList<String>> entry : metadata.dataConvertFormats.entrySet()) {
+			element();
+			beginObject();
+			stringMember(ORIGINAL_FORMAT, entry.getKey());
+			member(DESTINATION_FORMATS);
+			stringArray(entry.getValue());
+			endObject();
+		}
+		endArray();
+
+		member(DATA_REQUEST_FORMATS);
+		stringArray(metadata.dataRequestFormats);
+
+		stringMember(ORIGIN_MESSAGE_ID, metadata.originMessageID);
+		stringMember(SOURCE_USER_ID, metadata.sourceUserID);
+		stringMember(TIMESTAMP, metadata.timestamp);
+
+		// only versioned announcements carry catalogue fields
+		if (metadata.catalogueVersion > 0) {
+			member(CATALOGUE_VERSION);
+			number(metadata.catalogueVersion);
+			member(CATALOGUE_SNAPSHOT);
+			bytes(metadata.catalogueSnapshot ? TRUE : FALSE);
+			member(REMOVED_DATA);
+			stringArray(metadata.removedData);
+		}
+		if (!metadata.transferBackends.isEmpty()) {
+			member(TRANSFER_BACKENDS);
+			stringArray(metadata.transferBackends);
+		}
+		endObject();
+	}
+
+	// ****************************************
+	//
+	// tokens
+	//
+	// ****************************************
+
+	private void beginObject() {
+		write('{');
+		this.first = true;
+	}
+
+	private void endObject() {
+		write('}');
+		this.first = false;
+	}
+
+	private void beginArray() {
+		write('[');
+		this.first = true;
+	}
+
+	private void endArray() {
+		write(']');
+		this.first = false;
+	}
+
+	/**
+	 * Write the separator before an array element.
+	 */
+	private void element() {
+		if (!this.first) {
+			write(',');
+		}
+		this.first = false;
+	}
+
+	/**
+	 * Write a member name and separators.
+	 *
+	 * @param key The quoted member name followed by ':'.
+	 */
+	private void member(byte[] key) {
+		element();
+		bytes(key);
+	}
+
+	/**
+	 * Write a string member. Null values are left out, as org.json does.
+	 *
+	 * @param key   The quoted member name followed by ':'.
+	 * @param value The value.
+	 */
+	private void stringMember(byte[] key, String value) {
+		if (value != null) {
+			member(key);
+			string(value);
+		}
+	}
+
+	private void stringArray(ArrayList<String> values) {
+		beginArray();
+		for (int i = 0; i < values.size(); i++) {
+			element();
+			string(values.get(i));
+		}
+		endArray();
+	}
+
+	/**
+	 * Write a quoted string, escaping it as JSON and encoding it as UTF-8.
+	 *
+	 * @param value The string.
+	 */
+	private void string(String value) {
+		int length = value.length();
+		// an escaped character takes at most 6 bytes
+		ensureCapacity(length * 6 + 2);
+		byte[] out = this.buffer;
+		int p = this.position;
+		out[p++] = '"';
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c < 0x80) {
+				if (c == '"' || c == '\\') {
+					out[p++] = '\\';
+				}
+				out[p++] = (byte) c;
+			} else if (c < 0x20) {
+				out[p++] = '\\';
+				switch (c) {
+					case '\b':
+						out[p++] = 'b';
+						break;
+					case '\f':
+						out[p++] = 'f';
+						break;
+					case '\n':
+						out[p++] = 'n';
+						break;
+					case '\r':
+						out[p++] = 'r';
+						break;
+					case '\t':
+						out[p++] = 't';
+						break;
+					default:
+						out[p++] = 'u';
+						out[p++] = '0';
+						out[p++] = '0';
+						out[p++] = HEX[c >> 4];
+						out[p++] = HEX[c & 0xF];
+						break;
+				}
+			} else if (c < 0x800) {
+				out[p++] = (byte) (0xC0 | (c >> 6));
+				out[p++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				out[p++] = (byte) (0xF0 | (codePoint >> 18));
+				out[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				out[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				out[p++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, replaced as the UTF-8 encoder does
+				out[p++] = '?';
+			} else {
+				out[p++] = (byte) (0xE0 | (c >> 12));
+				out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				out[p++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		out[p++] = '"';
+		this.position = p;
+	}
+
+	/**
+	 * Write a number without converting it to a String.
+	 *
+	 * @param value The number.
+	 */
+	private void number(long value) {
+		if (value < 0) {
+			// only unknown sizes are negative
+			bytes(String.valueOf(value).getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		ensureCapacity(20);
+		int digits = 1;
+		for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+			digits++;
+		}
+		int p = this.position + digits;
+		this.position = p;
+		do {
+			this.buffer[--p] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+	}
+
+	private void bytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+		this.position += bytes.length;
+	}
+
+	private void write(char c) {
+		ensureCapacity(1);
+		this.buffer[this.position++] = (byte) c;
+	}
+
+	private void ensureCapacity(int needed) {
+		if (this.position + needed > this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + needed));
+		}
+	}
+
+	/**
+	 * Encode a member name with its quotes and separator.
+	 *
+	 * @param key The member name.
+	 * @return The encoded member name.
+	 */
+	private static byte[] key(String key) {
+		return ("\"" + key + "\":").getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -112,6 +112,37 @@ public class Message {
 		metadata.setSourceUserID(sourceUserID);
 	}
 
+	/**
+	 * Add the version of the user's file catalogue the announcement brings peers
+	 * up to.
+	 * 
+	 * @param catalogueVersion The catalogue version.
+	 * @param snapshot         True if the message holds the whole catalogue rather
+	 *                         than the changes since the previous version.
+	 */
+	public void addCatalogueVersion(long catalogueVersion, boolean snapshot) {
+		metadata.setCatalogueVersion(catalogueVersion, snapshot);
+	}
+
+	/**
+	 * Add the name of a file removed from the user's file catalogue.
+	 * 
+	 * @param filename The name of the removed file.
+	 */
+	public void addRemovedFile(String filename) {
+		metadata.setRemovedData(filename);
+	}
+
+	/**
+	 * Add the transfer backends the user can receive the requested file with.
+	 * 
+	 * @param transferBackends The names of the transfer backends, in order of
+	 *                         preference.
+	 */
+	public void addTransferBackends(List<String> transferBackends) {
+		metadata.setTransferBackends(transferBackends);
+	}
+
 	/**
 	 * Add the content for the message.
 	 * 
@@ -152,6 +183,17 @@ public class Message {
 		content = root.getString(Constants.CONTENT);
 	}
 
+	/**
+	 * Constructor for a received message decoded from another encoding.
+	 * 
+	 * @param metadata The decoded metadata.
+	 * @param content  The decoded content.
+	 */
+	Message(Metadata metadata, String content) {
+		this.metadata = metadata;
+		this.content = content;
+	}
+
 	/**
 	 * Get the ID of the user who sent the message.
 	 * 
@@ -225,6 +267,43 @@ public class Message {
 		return metadata.sourceUserID;
 	}
 
+	/**
+	 * Get the version of the sender's file catalogue.
+	 * 
+	 * @return The catalogue version or 0 if the message is not versioned.
+	 */
+	public long getCatalogueVersion() {
+		return metadata.catalogueVersion;
+	}
+
+	/**
+	 * Check if the message holds the sender's whole file catalogue.
+	 * 
+	 * @return True if the message is a catalogue snapshot.
+	 */
+	public boolean isCatalogueSnapshot() {
+		return metadata.catalogueSnapshot;
+	}
+
+	/**
+	 * Get the names of the files removed from the sender's file catalogue.
+	 * 
+	 * @return List of removed filenames.
+	 */
+	public List<String> getRemovedFiles() {
+		return metadata.removedData;
+	}
+
+	/**
+	 * Get the transfer backends the requesting user can receive with.
+	 * 
+	 * @return List of transfer backend names, empty if only magic-wormhole is
+	 *         supported.
+	 */
+	public List<String> getTransferBackends() {
+		return metadata.transferBackends;
+	}
+
 	/**
 	 * Print the Message instance as "metadata = " followed by the metadata and
 	 * "content = " followed by the message content.
@@ -0,0 +1,164 @@
+package message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import constants.Constants;
+
+/**
+ * Convert messages to and from the encoding named by the AMQP content type and
+ * compress large messages with the AMQP content encoding. Several encoded
+ * messages can be packed into a single batch body.
+ * 
+ * @author andrewnguyen
+ *
+ */
+public final class MessageCodec {
+
+	private MessageCodec() {
+	}
+
+	/**
+	 * Encode a message.
+	 * 
+	 * @param message     The message to encode.
+	 * @param contentType The content type of the encoding.
+	 * @return The encoded message.
+	 */
+	public static byte[] encode(Message message, String contentType) {
+		if (Objects.equals(contentType, Constants.CONTENT_TYPE_BINARY)) {
+			return BinaryCodec.encode(message);
+		}
+		return JsonMessageWriter.write(message);
+	}
+
+	/**
+	 * Decode a message. Messages without a content type, such as those sent by
+	 * older or Python clients, are decoded as JSON.
+	 * 
+	 * @param body        The encoded message.
+	 * @param contentType The content type of the encoding or null.
+	 * @return The decoded message.
+	 */
+	public static Message decode(byte[] body, String contentType) {
+		if (Objects.equals(contentType, Constants.CONTENT_TYPE_BINARY)) {
+			return BinaryCodec.decode(body);
+		}
+		return JsonMessageReader.read(body);
+	}
+
+	/**
+	 * Compress an encoded message with deflate.
+	 * 
+	 * @param body The encoded message.
+	 * @return The compressed message.
+	 */
+	public static byte[] compress(byte[] body) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(body);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompress a message with the content encoding it was sent with. Messages
+	 * without a content encoding are returned unchanged.
+	 * 
+	 * @param body            The received message.
+	 * @param contentEncoding The content encoding or null.
+	 * @return The encoded message.
+	 * @throws IllegalArgumentException If the content encoding is not supported
+	 *                                  or the message cannot be decompressed.
+	 */
+	public static byte[] decompress(byte[] body, String contentEncoding) {
+		if (contentEncoding == null) {
+			return body;
+		}
+		if (!contentEncoding.equals(Constants.CONTENT_ENCODING_DEFLATE)) {
+			throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+		}
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(body);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(int) Math.min((long) body.length * 4, Constants.MAX_MESSAGE_SIZE));
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(buffer);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("Compressed message is truncated");
+				}
+				if (out.size() + inflated > Constants.MAX_MESSAGE_SIZE) {
+					throw new IllegalArgumentException("Decompressed message is too large");
+				}
+				out.write(buffer, 0, inflated);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Malformed compressed message: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Pack encoded messages into one batch body. Each message is written as its
+	 * length in 4 bytes followed by its encoded bytes.
+	 * 
+	 * @param bodies The encoded messages.
+	 * @return The batch body.
+	 */
+	public static byte[] packBatch(List<byte[]> bodies) {
+		int size = 0;
+		for (byte[] body : bodies) {
+			size += Integer.BYTES + body.length;
+		}
+		ByteBuffer batch = ByteBuffer.allocate(size);
+		for (byte[] body : bodies) {
+			batch.putInt(body.length);
+			batch.put(body);
+		}
+		return batch.array();
+	}
+
+	/**
+	 * Unpack the encoded messages from a batch body.
+	 * 
+	 * @param batch The batch body.
+	 * @return The encoded messages in the order they were packed.
+	 * @throws IllegalArgumentException If the batch is malformed.
+	 */
+	public static List<byte[]> unpackBatch(byte[] batch) {
+		List<byte[]> bodies = new ArrayList<>();
+		ByteBuffer buffer = ByteBuffer.wrap(batch);
+		while (buffer.hasRemaining()) {
+			if (buffer.remaining() < Integer.BYTES) {
+				throw new IllegalArgumentException("Batch is truncated");
+			}
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IllegalArgumentException("Batch is truncated");
+			}
+			byte[] body = new byte[length];
+			buffer.get(body);
+			bodies.add(body);
+		}
+		return bodies;
+	}
+}
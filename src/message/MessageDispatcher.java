@@ -0,0 +1,101 @@
+package message;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import logging.Log;
+
+/**
+ * Process received messages in parallel while keeping the order of messages
+ * with the same key.
+ *
+ * Each key is assigned to one of a fixed number of lanes and every lane runs its
+ * tasks one at a time in the order they were dispatched. Keying by the sender's
+ * user ID keeps the announce, request, and sent data messages of a chain in
+ * order since every step of a chain is sent after the previous step was
+ * processed.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class MessageDispatcher {
+
+	private static final String CLASS_NAME = MessageDispatcher.class.getName();
+
+	private final Lane[] lanes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads       The number of lanes processing messages in parallel.
+	 * @param queueCapacity The number of messages each lane can hold before
+	 *                      dispatching blocks.
+	 */
+	public MessageDispatcher(int threads, int queueCapacity) {
+		this.lanes = new Lane[Math.max(1, threads)];
+		for (int i = 0; i < this.lanes.length; i++) {
+			this.lanes[i] = new Lane(i, queueCapacity);
+			this.lanes[i].start();
+		}
+	}
+
+	/**
+	 * Queue a task to run after every task previously dispatched with the same
+	 * key. Blocks while the lane for the key is full.
+	 *
+	 * @param key  The ordering key, such as the sender's user ID.
+	 * @param task The task to run.
+	 */
+	public void dispatch(String key, Runnable task) {
+		Lane lane = this.lanes[Math.floorMod(String.valueOf(key).hashCode(), this.lanes.length)];
+		try {
+			lane.tasks.put(task);
+		} catch (InterruptedException e) {
+			Log.error("Interrupted dispatching message for: " + key, CLASS_NAME + ":dispatch");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop processing messages. Messages still queued are discarded.
+	 */
+	public void shutdown() {
+		for (Lane lane : this.lanes) {
+			lane.interrupt();
+		}
+	}
+
+	private static class Lane extends Thread {
+
+		private final BlockingQueue<Runnable> tasks;
+
+		/**
+		 * Constructor for creating a Lane.
+		 *
+		 * @param index         The index of the lane.
+		 * @param queueCapacity The number of tasks the lane can hold.
+		 */
+		private Lane(int index, int queueCapacity) {
+			super("message-lane-" + index);
+			this.tasks = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				Runnable task;
+				try {
+					task = this.tasks.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					Log.error(String.valueOf(e.getMessage()), CLASS_NAME + ":" + getName());
+				}
+			}
+		}
+	}
+}
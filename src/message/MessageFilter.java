@@ -0,0 +1,152 @@
+package message;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import constants.Constants;
+import user.User;
+
+/**
+ * Describe messages in AMQP headers so received messages can be skipped before
+ * their body is decoded.
+ * 
+ * The headers hold the sender's user ID, the message type, the catalogue
+ * version, and the formats the message is about: the formats of the announced
+ * files for announcements and the destination formats for translation
+ * announcements.
+ * 
+ * @author andrewnguyen
+ *
+ */
+public final class MessageFilter {
+
+	private MessageFilter() {
+	}
+
+	/**
+	 * Create the headers describing a message.
+	 * 
+	 * @param message The message to be sent.
+	 * @return The headers for the message.
+	 */
+	public static Map<String, Object> getHeaders(Message message) {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(Constants.USER_ID, message.getSenderID());
+		headers.put(Constants.MESSAGE_TYPE, message.getMessageType());
+		if (message.getCatalogueVersion() > 0) {
+			headers.put(Constants.CATALOGUE_VERSION, message.getCatalogueVersion());
+		}
+
+		Set<String> formats = new LinkedHashSet<>();
+		if (Objects.equals(message.getMessageType(), Constants.ANNOUNCE_MESSAGE)) {
+			// snapshots are requested directly and are never skipped
+			if (message.isCatalogueSnapshot()) {
+				return headers;
+			}
+			for (FileData file : message.getFileData()) {
+				if (file.getFormat() != null) {
+					formats.add(file.getFormat());
+				}
+			}
+			for (String removed : message.getRemovedFiles()) {
+				addFormat(formats, removed);
+			}
+		} else if (Objects.equals(message.getMessageType(), Constants.CAN_TRANSLATE)) {
+			for (List<String> destinations : message.getConvertFormats().values()) {
+				formats.addAll(destinations);
+			}
+		} else {
+			return headers;
+		}
+		headers.put(Constants.HEADER_FORMATS, String.join(",", formats));
+		return headers;
+	}
+
+	/**
+	 * Check if the user sent the message.
+	 * 
+	 * @param user    User receiving the message.
+	 * @param headers The headers of the received message or null.
+	 * @return True if the headers name the user as the sender.
+	 */
+	public static boolean isOwnMessage(User user, Map<String, Object> headers) {
+		return Objects.equals(getSenderID(headers), user.getUserID());
+	}
+
+	/**
+	 * Check if the message is about formats the user wants or can convert.
+	 * Messages without headers, such as those from older or Python clients, are
+	 * always relevant.
+	 * 
+	 * @param user    User receiving the message.
+	 * @param headers The headers of the received message or null.
+	 * @return False if the message can be skipped without being decoded.
+	 */
+	public static boolean isRelevant(User user, Map<String, Object> headers) {
+		if (headers == null || headers.get(Constants.HEADER_FORMATS) == null) {
+			return true;
+		}
+
+		String messageType = String.valueOf(headers.get(Constants.MESSAGE_TYPE));
+		for (String format : String.valueOf(headers.get(Constants.HEADER_FORMATS)).split(",")) {
+			if (user.getWantFormats().contains(format)) {
+				return true;
+			}
+			// only announced data can be converted
+			if (messageType.equals(Constants.ANNOUNCE_MESSAGE) && user.getConvertFormats().containsKey(format)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the sender's user ID from the headers.
+	 * 
+	 * @param headers The headers of the received message or null.
+	 * @return The ID of the sender or null if there are no headers.
+	 */
+	public static String getSenderID(Map<String, Object> headers) {
+		Object senderID = headers == null ? null : headers.get(Constants.USER_ID);
+		return senderID == null ? null : senderID.toString();
+	}
+
+	/**
+	 * Get the catalogue version from the headers.
+	 * 
+	 * @param headers The headers of the received message or null.
+	 * @return The catalogue version or 0 if the message is not versioned.
+	 */
+	public static long getCatalogueVersion(Map<String, Object> headers) {
+		Object version = headers == null ? null : headers.get(Constants.CATALOGUE_VERSION);
+		return version instanceof Number ? ((Number) version).longValue() : 0;
+	}
+
+	/**
+	 * Get the content type of the messages in a batch from the headers.
+	 * 
+	 * @param headers The headers of the received batch or null.
+	 * @return The content type or null if the messages are JSON.
+	 */
+	public static String getBatchContentType(Map<String, Object> headers) {
+		Object contentType = headers == null ? null : headers.get(Constants.HEADER_BATCH_CONTENT_TYPE);
+		return contentType == null ? null : contentType.toString();
+	}
+
+	/**
+	 * Add the format of a file to the formats.
+	 * 
+	 * @param formats  The formats.
+	 * @param filename The name of the file.
+	 */
+	private static void addFormat(Set<String> formats, String filename) {
+		String format = FileData.formatOf(filename);
+		if (format != null) {
+			formats.add(format);
+		}
+	}
+}
@@ -1,12 +1,12 @@
 package message;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -29,6 +29,15 @@ public class Metadata {
     public String originMessageID = "";
     public String sourceUserID = "";
 
+    // version of the sender's file catalogue, 0 if the message is not versioned
+    public long catalogueVersion = 0;
+    // true if data holds the sender's whole catalogue rather than the files added
+    public boolean catalogueSnapshot = false;
+    public ArrayList<String> removedData = new ArrayList<>();
+
+    // transfer backends the requesting user can receive with, empty for magic-wormhole only
+    public ArrayList<String> transferBackends = new ArrayList<>();
+
     public String timestamp;
 
     // ****************************************
@@ -57,9 +66,7 @@ public class Metadata {
      * @throws IOException
      */
     public void setData(Path filepath) throws IOException {
-        String filename = filepath.getFileName().toString();
-        String filesize = String.valueOf(Files.size(filepath));
-        data.add(new FileData(filename, filesize));
+        data.add(FileData.of(filepath));
     }
 
     /**
@@ -110,6 +117,35 @@ public class Metadata {
         this.sourceUserID = sourceUserID;
     }
 
+    /**
+     * Set the catalogue version.
+     * 
+     * @param catalogueVersion The version of the sender's file catalogue.
+     * @param snapshot         True if the data holds the whole catalogue.
+     */
+    public void setCatalogueVersion(long catalogueVersion, boolean snapshot) {
+        this.catalogueVersion = catalogueVersion;
+        this.catalogueSnapshot = snapshot;
+    }
+
+    /**
+     * Add the name of a file removed from the sender's catalogue.
+     * 
+     * @param filename The name of the removed file.
+     */
+    public void setRemovedData(String filename) {
+        this.removedData.add(filename);
+    }
+
+    /**
+     * Set the transfer backends the requesting user can receive with.
+     * 
+     * @param transferBackends The names of the transfer backends.
+     */
+    public void setTransferBackends(List<String> transferBackends) {
+        this.transferBackends.addAll(transferBackends);
+    }
+
     /**
      * Convert the Metadata instance to a JSONObject.
      * 
@@ -126,6 +162,15 @@ public class Metadata {
         meta.put(Constants.ORIGIN_MESSAGE_ID, originMessageID);
         meta.put(Constants.SOURCE_USER_ID, sourceUserID);
         meta.put(Constants.TIMESTAMP, timestamp);
+        // only versioned announcements carry catalogue fields
+        if (catalogueVersion > 0) {
+            meta.put(Constants.CATALOGUE_VERSION, catalogueVersion);
+            meta.put(Constants.CATALOGUE_SNAPSHOT, catalogueSnapshot);
+            meta.put(Constants.REMOVED_DATA, new JSONArray(removedData));
+        }
+        if (!transferBackends.isEmpty()) {
+            meta.put(Constants.TRANSFER_BACKENDS, new JSONArray(transferBackends));
+        }
         return meta;
     }
 
@@ -140,7 +185,14 @@ public class Metadata {
         for (FileData file : this.data) {
             JSONObject currFileData = new JSONObject();
             currFileData.put(Constants.FILENAME, file.getFileName());
-            currFileData.put(Constants.FILESIZE, file.getFileSize());
+            // sizes are sent as text for compatibility with existing clients
+            currFileData.put(Constants.FILESIZE, String.valueOf(file.getFileSize()));
+            if (file.getLastModified() != 0) {
+                currFileData.put(Constants.FILE_MODIFIED, file.getLastModified());
+            }
+            if (file.getChecksum() != null) {
+                currFileData.put(Constants.FILE_CHECKSUM, file.getChecksum());
+            }
             filedata.put(currFileData);
         }
         return filedata;
@@ -188,6 +240,12 @@ public class Metadata {
     //
     // ****************************************
 
+    /**
+     * Constructor for an empty Metadata instance filled in by a decoder.
+     */
+    Metadata() {
+    }
+
     /**
      * Constructor for Metadata instance when receiving.
      * 
@@ -203,6 +261,20 @@ public class Metadata {
         originMessageID = metadataJSONObj.getString(Constants.ORIGIN_MESSAGE_ID);
         sourceUserID = metadataJSONObj.getString(Constants.SOURCE_USER_ID);
         timestamp = metadataJSONObj.getString(Constants.TIMESTAMP);
+        catalogueVersion = metadataJSONObj.optLong(Constants.CATALOGUE_VERSION, 0);
+        catalogueSnapshot = metadataJSONObj.optBoolean(Constants.CATALOGUE_SNAPSHOT, false);
+        JSONArray backends = metadataJSONObj.optJSONArray(Constants.TRANSFER_BACKENDS);
+        if (backends != null) {
+            for (Object backend : backends) {
+                transferBackends.add(String.valueOf(backend));
+            }
+        }
+        JSONArray removed = metadataJSONObj.optJSONArray(Constants.REMOVED_DATA);
+        if (removed != null) {
+            for (Object filename : removed) {
+                removedData.add(String.valueOf(filename));
+            }
+        }
     }
 
     /**
@@ -212,9 +284,12 @@ public class Metadata {
      */
     public void setData(JSONArray filedata) {
         for (Object file : filedata) {
-            String filename = ((JSONObject) file).getString(Constants.FILENAME);
-            String filesize = ((JSONObject) file).getString(Constants.FILESIZE);
-            this.data.add(new FileData(filename, filesize));
+            JSONObject fileJSON = (JSONObject) file;
+            FileData currFileData = new FileData(fileJSON.getString(Constants.FILENAME),
+                    fileJSON.optString(Constants.FILESIZE, null));
+            currFileData.setLastModified(fileJSON.optLong(Constants.FILE_MODIFIED, 0));
+            currFileData.setChecksum(fileJSON.optString(Constants.FILE_CHECKSUM, null));
+            this.data.add(currFileData);
         }
 
     }
@@ -259,6 +334,10 @@ public class Metadata {
                 dataConvertFormats, dataRequestFormats);
         metadataString += String.format("timestamp: %s, origin_message_id: %s, source_user_id: %s%n", timestamp,
                 originMessageID, sourceUserID);
+        if (catalogueVersion > 0) {
+            metadataString += String.format("catalogue_version: %s, catalogue_snapshot: %s, removed_data: %s%n",
+                    catalogueVersion, catalogueSnapshot, removedData);
+        }
 
         return metadataString;
     }
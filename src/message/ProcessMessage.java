@@ -1,18 +1,18 @@
 package message;
 
+import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
 
 import constants.Constants;
 import logging.Log;
-import message.Wormhole.ReceiveObj;
 import rabbitmq.RabbitMQConnection;
+import transfer.Transfers;
 import user.User;
 
 /**
@@ -40,21 +40,40 @@ public class ProcessMessage {
 	// connection to send message
 	private RabbitMQConnection connection;
 
+	// backends to send and receive files with
+	private Transfers transfers;
+
+	// files already received with the contents of announced files
+	private List<ReceivedFile> localCopies = new ArrayList<>();
+
 	/**
 	 * Constructor
 	 * 
 	 * @param user       User receiving the message.
 	 * @param connection The RabbitMQ connection for this user.
+	 * @param transfers  The transfer backends of the user.
 	 * @param message    Received message.
 	 */
-	public ProcessMessage(User user, RabbitMQConnection connection, String message) {
+	public ProcessMessage(User user, RabbitMQConnection connection, Transfers transfers, String message) {
+		this(user, connection, transfers, new Message(message));
+	}
+
+	/**
+	 * Constructor for a message that has already been converted, sending and
+	 * receiving files with the given transfer backends.
+	 * 
+	 * @param user       User receiving the message.
+	 * @param connection The RabbitMQ connection for this user.
+	 * @param transfers  The transfer backends of the user.
+	 * @param message    Received message.
+	 */
+	public ProcessMessage(User user, RabbitMQConnection connection, Transfers transfers, Message message) {
 		this.user = user;
-		JSONObject root = new JSONObject(message);
-		JSONObject metadata = root.getJSONObject(Constants.METADATA);
+		this.transfers = transfers;
 
 		// Ignore messages current user sent
-		if (!Objects.equals(metadata.getString(Constants.USER_ID), user.getUserID())) {
-			this.message = new Message(message);
+		if (!Objects.equals(message.getSenderID(), user.getUserID())) {
+			this.message = message;
 
 			this.senderID = this.message.getSenderID();
 			this.messageType = this.message.getMessageType();
@@ -71,12 +90,24 @@ public class ProcessMessage {
 	/**
 	 * Directs to methods for handling received message
 	 * 
-	 * @return A ReceiveObj object containing the received filename and thread that
-	 *         is running or null.
+	 * @return A future completed with the received file once the transfer finishes,
+	 *         or null if the user is not receiving a file. Announced files already
+	 *         received are returned by {@link #getLocalCopies()}.
 	 */
-	public ReceiveObj process() {
+	public CompletableFuture<ReceivedFile> process() {
 		if (this.message != null) {
 			Log.received(String.format(" [x] Received %s", this.message));
+
+			if (Objects.equals(this.messageType, Constants.REQUEST_CATALOGUE)) {
+				sendCatalogue();
+				return null;
+			}
+
+			// skip announcements already seen in an earlier catalogue version
+			if (Objects.equals(this.messageType, Constants.ANNOUNCE_MESSAGE) && !updateCatalogueVersion()) {
+				return null;
+			}
+
 			this.user.addReceivedMessage(this.messageID, this.message);
 
 			Path requestedFilepath = getFilepath();
@@ -94,14 +125,104 @@ public class ProcessMessage {
 			}
 
 			if (Objects.equals(this.messageType, Constants.SENT_DATA)) {
-				String filename = this.message.getFileData().get(0).getFileName();
-				return Wormhole.receive(this.connection, this.user.getRequestMessage(), this.message.getContent(),
-						filename, this.senderID);
+				// the request for this file sent to the user who sent it
+				Message requestMessage = this.user.getRequestMessage(this.senderID,
+						this.message.getFileData().get(0).getFileName());
+				return this.transfers.receive(this.connection, requestMessage, this.message);
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Record the catalogue version of an announcement and request a catalogue
+	 * snapshot from the sender if earlier versions were missed.
+	 * 
+	 * @return True if the announcement is newer than the catalogue version already
+	 *         seen from the sender, false if it should be ignored.
+	 */
+	private boolean updateCatalogueVersion() {
+		long version = this.message.getCatalogueVersion();
+		// announcements from users who do not version their catalogue
+		if (version == 0) {
+			return true;
+		}
+
+		if (!updateCatalogueVersion(this.user, this.connection, this.senderID, version,
+				this.message.isCatalogueSnapshot())) {
+			return false;
+		}
+
+		// requests for files the sender no longer has will not be answered
+		for (String filename : this.message.getRemovedFiles()) {
+			this.user.removeFileRequest(this.senderID, filename);
+		}
+		return true;
+	}
+
+	/**
+	 * Record the catalogue version of an announcement that was skipped without
+	 * being decoded, so skipping it is not mistaken for a missed version later.
+	 * Must be called in order with the other messages from the sender.
+	 * 
+	 * @param user       User receiving the message.
+	 * @param connection The RabbitMQ connection for this user.
+	 * @param senderID   The ID of the user who sent the announcement.
+	 * @param version    The catalogue version of the announcement.
+	 */
+	public static void skipAnnouncement(User user, RabbitMQConnection connection, String senderID, long version) {
+		if (version > 0) {
+			updateCatalogueVersion(user, connection, senderID, version, false);
+		}
+	}
+
+	/**
+	 * Record a catalogue version seen from a sender and request a catalogue
+	 * snapshot from the sender if earlier versions were missed.
+	 * 
+	 * @param user       User receiving the message.
+	 * @param connection The RabbitMQ connection for this user.
+	 * @param senderID   The ID of the user who sent the announcement.
+	 * @param version    The catalogue version of the announcement.
+	 * @param snapshot   True if the announcement is a catalogue snapshot.
+	 * @return True if the version is newer than the version already seen or is a
+	 *         requested snapshot.
+	 */
+	private static boolean updateCatalogueVersion(User user, RabbitMQConnection connection, String senderID,
+			long version, boolean snapshot) {
+		long knownVersion = user.getPeerCatalogueVersion(senderID);
+		if (snapshot) {
+			// snapshots that were requested are always applied
+			if (!user.removeCatalogueRequest(senderID) && version <= knownVersion) {
+				return false;
+			}
+		} else if (version <= knownVersion) {
+			return false;
+		} else if (version > knownVersion + 1 && (knownVersion == 0 || !connection.isTopicRouting())
+				&& user.addCatalogueRequest(senderID)) {
+			// with topic routing only announcements for relevant formats arrive, so later
+			// gaps are expected and only the first announcement requests a snapshot
+			Message catalogueRequest = new Message(user.getUserID(), Constants.REQUEST_CATALOGUE);
+			catalogueRequest.addContent("Requesting catalogue after version " + knownVersion);
+			connection.direct(catalogueRequest, senderID);
+		}
+		user.setPeerCatalogueVersion(senderID, version);
+		return true;
+	}
+
+	/**
+	 * Send every file the user shares to the user requesting a catalogue snapshot.
+	 */
+	private void sendCatalogue() {
+		Message snapshot = new Message(this.userID, Constants.ANNOUNCE_MESSAGE);
+		for (Path path : this.filepaths) {
+			snapshot.addFilePath(path.toString());
+		}
+		snapshot.addCatalogueVersion(this.user.getCatalogueVersion(), true);
+		snapshot.addContent("I have data.");
+		this.connection.direct(snapshot, this.senderID);
+	}
+
 	/**
 	 * The user has the data in the received message.
 	 * 
@@ -111,7 +232,7 @@ public class ProcessMessage {
 		switch (this.messageType) {
 			// a user is requesting the data
 			case Constants.REQUEST_DATA:
-				Wormhole.send(connection, this.userID, this.message, filepath);
+				this.transfers.send(connection, this.userID, this.message, filepath);
 				break;
 
 			// user wants the data converted
@@ -191,26 +312,35 @@ public class ProcessMessage {
 
 		for (FileData filedata : data) {
 			String filename = filedata.getFileName();
-			String fileformat = filename.split("[.]")[1];
+			String fileformat = filedata.getFormat();
 
-			// check if the user has already requested the file from the user
-			Boolean alreadyRequested = this.user.getFilesRequested(originSenderID) != null
-					&& this.user.getFilesRequested(originSenderID).contains(filename);
+			// skip formats the user does not want and files already requested from the
+			// user
+			if (!requestWantFormats.contains(fileformat) || !this.user.addFileRequestIfAbsent(originSenderID, filename)) {
+				continue;
+			}
 
-			// if the format the sender sent is one the user wants and the user has not
-			// requested the file
-			if (requestWantFormats.contains(fileformat) && Boolean.TRUE.equals(!alreadyRequested)) {
-				Message requestMessage = new Message(this.userID, Constants.REQUEST_DATA);
-				requestMessage.addRequestFormats(requestWantFormats);
-				requestMessage.requestFile(filedata);
-				requestMessage.addOriginMessageID(requestMessageID);
-				requestMessage.addSourceUserID(originSenderID);
-				requestMessage.addContent("Requesting file '" + filename + "'");
-				this.connection.direct(requestMessage, originSenderID);
-				this.user.addFileRequest(originSenderID, filename);
-				this.user.addRequestMessage(requestMessage);
-				break;
+			if (!forConvert) {
+				// the same contents were already received, so no transfer is needed. The
+				// request stays recorded, so the file is only delivered once until the sender
+				// removes it
+				File received = ReceivedFileIndex.find(filedata);
+				if (received != null) {
+					Log.other(String.format("Already received '%s' as '%s'", filename, received.getName()));
+					this.localCopies.add(new ReceivedFile(received, originSenderID, filename));
+					continue;
+				}
 			}
+
+			Message requestMessage = new Message(this.userID, Constants.REQUEST_DATA);
+			requestMessage.addRequestFormats(requestWantFormats);
+			requestMessage.requestFile(filedata);
+			requestMessage.addOriginMessageID(requestMessageID);
+			requestMessage.addSourceUserID(originSenderID);
+			requestMessage.addTransferBackends(this.transfers.getAdvertisedNames());
+			requestMessage.addContent("Requesting file '" + filename + "'");
+			this.user.addRequestMessage(originSenderID, requestMessage);
+			this.connection.direct(requestMessage, originSenderID);
 		}
 	}
 
@@ -266,13 +396,18 @@ public class ProcessMessage {
 		Map<String, ArrayList<String>> convertableFormats = new HashMap<>();
 
 		for (FileData file : announcedData) {
-			String fileformat = file.getFileName().split("[.]")[1];
-			if (this.convertFormats.containsKey(fileformat)) {
+			String fileformat = file.getFormat();
+			if (fileformat != null && this.convertFormats.containsKey(fileformat)) {
 				requestData.add(file);
 				convertableFormats.put(fileformat, this.convertFormats.get(fileformat));
 			}
 		}
 
+		// nothing announced can be converted, such as an announcement of removed files
+		if (requestData.isEmpty()) {
+			return;
+		}
+
 		Message requestMessage = new Message(this.userID, Constants.CAN_TRANSLATE);
 
 		for (FileData file : requestData) {
@@ -317,10 +452,8 @@ public class ProcessMessage {
 		List<FileData> fileData = this.message.getFileData();
 		if (!fileData.isEmpty()) {
 			String filename = fileData.get(0).getFileName();
-			Boolean alreadyRequested = this.user.getTranslationFormatRequests(filename) != null
-					&& this.user.getTranslationFormatRequests(filename).contains(requestFormat);
 
-			if (requestFormat != null && Boolean.TRUE.equals(!alreadyRequested)) {
+			if (requestFormat != null && this.user.addTranslationRequestIfAbsent(filename, requestFormat)) {
 				Message requestMessage = new Message(this.userID, Constants.REQUEST_DATA);
 				for (FileData file : this.message.getFileData()) {
 					requestMessage.requestFile(file);
@@ -328,13 +461,33 @@ public class ProcessMessage {
 				requestMessage.addRequestFormats(requestFormat);
 				requestMessage.addOriginMessageID(this.message.getOriginMessageID());
 				requestMessage.addSourceUserID(this.message.getSourceUserID());
+				requestMessage.addTransferBackends(this.transfers.getAdvertisedNames());
 				requestMessage.addContent("Requesting data to be converted to " + requestFormat);
+				this.user.addRequestMessage(this.senderID, requestMessage);
 				this.connection.direct(requestMessage, this.senderID);
-				this.user.addTranslationRequest(filename, requestFormat);
 			}
 		}
 	}
 
+	/**
+	 * Get the announced files the user already received with the same contents,
+	 * delivered without a transfer.
+	 * 
+	 * @return The files, empty if none were found.
+	 */
+	public List<ReceivedFile> getLocalCopies() {
+		return this.localCopies;
+	}
+
+	/**
+	 * Get the received message.
+	 * 
+	 * @return The Message instance or null if the current user sent the message.
+	 */
+	public Message getMessage() {
+		return this.message;
+	}
+
 	/**
 	 * Get the file path corresponding of the requested file.
 	 * 
@@ -0,0 +1,91 @@
+package message;
+
+import java.io.File;
+
+/**
+ * Object to hold the information of a file received from another user.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class ReceivedFile {
+
+	private File file;
+	private String sourceUserID;
+	private String originalFilename;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file             The file written to the received-files directory.
+	 * @param sourceUserID     The ID of the user who sent the file.
+	 * @param originalFilename The name of the file as announced by the sender.
+	 */
+	public ReceivedFile(File file, String sourceUserID, String originalFilename) {
+		this.file = file;
+		this.sourceUserID = sourceUserID;
+		this.originalFilename = originalFilename;
+	}
+
+	/**
+	 * Get the received file.
+	 *
+	 * @return The file in the received-files directory.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Get the full path of the received file.
+	 *
+	 * @return The path of the received file as a string.
+	 */
+	public String getFilepath() {
+		return this.file.toString();
+	}
+
+	/**
+	 * Get the name the file was saved as, which may differ from the original
+	 * filename if a file with the same name had already been received.
+	 *
+	 * @return The name of the received file.
+	 */
+	public String getFilename() {
+		return this.file.getName();
+	}
+
+	/**
+	 * Get the ID of the user who sent the file.
+	 *
+	 * @return The ID of the sender.
+	 */
+	public String getSourceUserID() {
+		return this.sourceUserID;
+	}
+
+	/**
+	 * Get the name of the file as announced by the sender.
+	 *
+	 * @return The original filename.
+	 */
+	public String getOriginalFilename() {
+		return this.originalFilename;
+	}
+
+	/**
+	 * Get the format of the received file.
+	 *
+	 * @return The extension after the last '.' or null if there is none.
+	 */
+	public String getFileFormat() {
+		return FileData.formatOf(getFilename());
+	}
+
+	/**
+	 * To print an instance of a received file.
+	 */
+	public String toString() {
+		return String.format("(%s, %s)", getFilepath(), sourceUserID);
+	}
+}
@@ -0,0 +1,226 @@
+package message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import logging.Log;
+
+/**
+ * Index of the received-files directory, read once and kept current as files
+ * are received. Files are found by name, to choose names for new files without
+ * listing the directory, and by checksum, so a file already received does not
+ * have to be transferred again.
+ *
+ * Checksums of files received without one, or already in the directory when it
+ * was read, are computed in the background, and those files are found once
+ * their checksum is known. A file is only found while its size and last
+ * modified time are the ones its checksum was computed for.
+ *
+ * @author andrewnguyen
+ *
+ */
+public final class ReceivedFileIndex {
+
+	private static final String CLASS_NAME = ReceivedFileIndex.class.getName();
+
+	private static final File RECEIVED_DIR = new File(System.getProperty("user.dir"), "received-files");
+
+	private static boolean loaded = false;
+
+	// names of the files in the directory and of files being received
+	private static final Set<String> NAMES = new HashSet<>();
+	// Key: received filename, Value: next number to try when the name is taken
+	private static final Map<String, Integer> NEXT_NUMBER = new HashMap<>();
+	// Key: checksum, Value: received file with the checksum
+	private static final Map<String, Received> BY_CHECKSUM = new HashMap<>();
+
+	private ReceivedFileIndex() {
+	}
+
+	/**
+	 * Choose the file to receive a file as. The name is taken until the file is
+	 * received or {@link #release(File)} is called.
+	 *
+	 * @param filename The filename received.
+	 * @return The file named as received, or with a number added before the
+	 *         extension starting at 2 if a file with that name was already
+	 *         received.
+	 */
+	public static synchronized File reserve(String filename) {
+		load();
+		String name = filename;
+		if (isTaken(name)) {
+			// only the last extension is the format, as in run.2024.csv
+			int dot = filename.lastIndexOf('.');
+			String base = dot < 0 ? filename : filename.substring(0, dot);
+			String format = dot < 0 ? "" : filename.substring(dot);
+			int number = NEXT_NUMBER.getOrDefault(filename, 2);
+			do {
+				name = String.format("%s-%d%s", base, number++, format);
+			} while (isTaken(name));
+			NEXT_NUMBER.put(filename, number);
+		}
+		NAMES.add(name);
+		return new File(RECEIVED_DIR, name);
+	}
+
+	/**
+	 * Free the name of a file that was not received.
+	 *
+	 * @param file The file returned by {@link #reserve(String)}.
+	 */
+	public static synchronized void release(File file) {
+		NAMES.remove(file.getName());
+	}
+
+	/**
+	 * Add a file that has been received.
+	 *
+	 * @param file     The received file.
+	 * @param checksum The checksum of the file, or null if it is not known.
+	 */
+	public static synchronized void received(File file, String checksum) {
+		load();
+		NAMES.add(file.getName());
+		Received received = Received.of(file.toPath());
+		if (received == null) {
+			Log.error("Failed to read received file '" + file + "'", CLASS_NAME + ":received");
+			return;
+		}
+		if (checksum != null) {
+			BY_CHECKSUM.put(checksum.toLowerCase(), received);
+		} else {
+			computeChecksum(received);
+		}
+	}
+
+	/**
+	 * Find a received file with the same contents. Files whose checksum is still
+	 * being computed are not found.
+	 *
+	 * @param filedata The file, with its size and checksum.
+	 * @return The received file or null if the file has not been received or has
+	 *         no checksum.
+	 */
+	public static synchronized File find(FileData filedata) {
+		String checksum = filedata.getChecksum();
+		if (checksum == null || filedata.getFileSize() < 0) {
+			return null;
+		}
+		checksum = checksum.toLowerCase();
+
+		load();
+		Received found = BY_CHECKSUM.get(checksum);
+		if (found == null) {
+			return null;
+		}
+		if (!found.isUnchanged()) {
+			BY_CHECKSUM.remove(checksum);
+			// the file was changed by hand, so its new contents may match another file
+			Received changed = Received.of(found.path);
+			if (changed != null) {
+				computeChecksum(changed);
+			}
+			return null;
+		}
+		return found.path.toFile();
+	}
+
+	/**
+	 * Compute the checksum of a received file in the background and add the file
+	 * once it is known.
+	 */
+	private static void computeChecksum(Received received) {
+		DigestCache.computeAsync(received.path, received.size, received.lastModified)
+				.whenComplete((checksum, error) -> {
+					if (error != null) {
+						Log.error("Failed to compute checksum of '" + received.path + "': " + error.getMessage(),
+								CLASS_NAME + ":computeChecksum");
+						return;
+					}
+					synchronized (ReceivedFileIndex.class) {
+						BY_CHECKSUM.put(checksum, received);
+					}
+				});
+	}
+
+	/**
+	 * Check if a name is used. The directory is also checked in case files were
+	 * added to it by hand.
+	 */
+	private static boolean isTaken(String name) {
+		return NAMES.contains(name) || new File(RECEIVED_DIR, name).exists();
+	}
+
+	/**
+	 * Read the directory the first time the index is used, creating it if it does
+	 * not exist.
+	 */
+	private static void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		if (!RECEIVED_DIR.exists()) {
+			RECEIVED_DIR.mkdir();
+		}
+		File[] files = RECEIVED_DIR.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			NAMES.add(file.getName());
+			if (file.isFile()) {
+				Received received = Received.of(file.toPath());
+				if (received != null) {
+					computeChecksum(received);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A received file and the size and last modified time its checksum is for.
+	 */
+	private static class Received {
+
+		private final Path path;
+		private final long size;
+		private final long lastModified;
+
+		private Received(Path path, long size, long lastModified) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Read the size and last modified time of a file.
+		 *
+		 * @return The received file or null if it no longer exists or cannot be read.
+		 */
+		private static Received of(Path path) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return new Received(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Check the file still exists with the same size and last modified time.
+		 */
+		private boolean isUnchanged() {
+			Received current = of(this.path);
+			return current != null && current.size == this.size && current.lastModified == this.lastModified;
+		}
+	}
+}
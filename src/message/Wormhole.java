@@ -2,9 +2,13 @@ package message;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntConsumer;
 
 import rabbitmq.RabbitMQConnection;
 
@@ -22,69 +26,58 @@ public class Wormhole {
 	}
 
 	/**
-	 * Changes filename if it already exists.
+	 * Receive the file a user is sending.
 	 * 
-	 * @param existingFilenames The list of existing filenames in the directory.
-	 * @param filename          The filename received.
-	 * @return The filename unchanged if it does not exist or the filename with a
-	 *         number at the end starting at 2.
+	 * @param command        The <i>"wormhole receive"</i> command.
+	 * @param filename       The name of the file being received.
+	 * @param senderID       The ID of the user sending the file.
+	 * @param progress       Called with the percentage received, or null.
+	 * @return A future completed with the received file once the <i>wormhole
+	 *         receive</i> process exits.
 	 */
-	private static String checkFilename(List<String> existingFilenames, String filename) {
-		if (existingFilenames.contains(filename)) {
-			while (true) {
-				if (!existingFilenames.contains(filename)) {
-					return filename;
-				}
-				String[] filenameSplit = filename.split("[.]");
-				String name = filenameSplit[0];
-				String format = filenameSplit[1];
-				try {
-					// last character is an integer
-					String last = String.valueOf(name.charAt(name.length() - 1));
-					int fileNum = Integer.parseInt(last);
-					fileNum++;
-					filename = String.format("%s-%s.%s", name.substring(0, name.length() - 2), fileNum, format);
-				} catch (NumberFormatException e) {
-					// last character is not an integer
-					filename = String.format("%s-%s.%s", name, 2, format);
-				}
-
-			}
+	public static CompletableFuture<ReceivedFile> receive(String command, String filename, String senderID,
+			IntConsumer progress) {
+		String code = getCode(command);
+		if (code == null) {
+			return CompletableFuture.failedFuture(new IOException("Not a wormhole receive command: " + command));
 		}
-		return filename;
+		String originalFilename = filename;
+		File receivedFile = ReceivedFileIndex.reserve(filename);
+		File receivedDir = receivedFile.getParentFile();
+
+		// to bypass "yes" input for wormhole receive and receive the file as the filename
+		List<String> receiveCommand = Arrays.asList("wormhole", "receive", code, "--accept-file", "-o",
+				receivedFile.getName());
+		return Executive.execute(receiveCommand, receivedDir, progress).thenApply(exitValue -> {
+			if (exitValue != 0 || !receivedFile.exists()) {
+				throw new CompletionException(new IOException(
+						"'" + String.join(" ", receiveCommand) + "' failed with exit value " + exitValue));
+			}
+			return new ReceivedFile(receivedFile, senderID, originalFilename);
+		}).whenComplete((received, error) -> {
+			if (error != null) {
+				receivedFile.delete();
+				ReceivedFileIndex.release(receivedFile);
+			}
+		});
 	}
 
 	/**
-	 * Receive the file a user is sending.
+	 * Get the wormhole code from the <i>"wormhole receive"</i> command another
+	 * user sent. Only the code is passed to the process, so nothing else in the
+	 * command is run.
 	 * 
-	 * @param command  The <i>"wormhole receive"</i> command.
-	 * @param filename The name of the file being received.
-	 * @return A ReceivedObj object containing the name of the file received and the
-	 *         running <i>wormhole receive</i> thread.
+	 * @param command The <i>"wormhole receive"</i> command.
+	 * @return The code or null if the command is not <i>"wormhole receive
+	 *         code"</i> with a code of letters, digits and '-'.
 	 */
-	public static ReceiveObj receive(RabbitMQConnection connection, Message requestMessage, String command,
-			String filename, String senderID) {
-		StringBuilder commandBuilder = new StringBuilder(command);
-		File receivedDir = new File(cwd, "received-files");
-		String originalFilename = filename;
-
-		// check if received-files directory exists, create if it does not
-		if (!receivedDir.exists()) {
-			receivedDir.mkdir();
+	private static String getCode(String command) {
+		String[] tokens = command == null ? new String[0] : command.trim().split("\\s+");
+		if (tokens.length != 3 || !tokens[0].equals("wormhole") || !tokens[1].equals("receive")
+				|| !tokens[2].matches("[A-Za-z0-9-]+")) {
+			return null;
 		}
-
-		// to bypass "yes" input for wormhole receive
-		commandBuilder.append(" --accept-file");
-
-		// check if filename already exists
-		List<String> existingFilenames = Arrays.asList(receivedDir.list());
-		filename = checkFilename(existingFilenames, filename);
-
-		// receive the file as the filename
-		commandBuilder.append(" -o " + filename);
-
-		Thread running = Executive.execute(commandBuilder.toString(), receivedDir, connection, requestMessage);
-		return new ReceiveObj(filename, running, senderID, originalFilename);
+		return tokens[2];
 	}
 
 	/**
@@ -94,44 +87,13 @@ public class Wormhole {
 	 * @param userID     The ID of the user sending the data.
 	 * @param message    The message the user received requesting the data.
 	 * @param filepath   The path of the file the user is requesting.
+	 * @param progress   Called with the percentage sent, or null.
+	 * @return A future completed with the exit value of <i>wormhole send</i> once
+	 *         the file has been sent or sending failed.
 	 */
-	public static void send(RabbitMQConnection connection, String userID, Message message, Path filepath) {
-		Executive.execute("wormhole send " + filepath, new File(cwd), connection, userID, message, filepath);
-	}
-
-	public static class ReceiveObj {
-
-		private String newFilename;
-		private Thread running;
-
-		private String sourceUserID;
-		private String originalFilename;
-
-		public ReceiveObj(String newFilename, Thread running, String sourceUserID, String originalFilename) {
-			this.newFilename = newFilename;
-			this.running = running;
-			this.sourceUserID = sourceUserID;
-			this.originalFilename = originalFilename;
-		}
-
-		public String getNewFilename() {
-			return this.newFilename;
-		}
-
-		public Thread getRunningThread() {
-			return this.running;
-		}
-
-		public String getSourceUserID() {
-			return this.sourceUserID;
-		}
-
-		public String getOriginalFilename() {
-			return this.originalFilename;
-		}
-
-		public String getFileFormat() {
-			return this.newFilename.split("[.]")[1];
-		}
+	public static CompletableFuture<Integer> send(RabbitMQConnection connection, String userID, Message message,
+			Path filepath, IntConsumer progress) {
+		return Executive.execute(Arrays.asList("wormhole", "send", filepath.toString()), new File(cwd), connection, userID,
+				message, filepath, progress);
 	}
 }
@@ -0,0 +1,95 @@
+package rabbitmq;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeoutException;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import logging.Log;
+
+/**
+ * A fixed set of channels used for publishing. A channel is only used by one
+ * thread at a time so concurrent publishers never share a channel.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class ChannelPool {
+
+	private static final String CLASS_NAME = ChannelPool.class.getName();
+
+	private final Connection connection;
+	private final BlockingQueue<Channel> idle;
+
+	/**
+	 * Constructor for creating a ChannelPool.
+	 *
+	 * @param connection The connection to create the channels on.
+	 * @param size       The number of channels in the pool.
+	 * @throws IOException If a channel could not be created.
+	 */
+	public ChannelPool(Connection connection, int size) throws IOException {
+		this.connection = connection;
+		this.idle = new ArrayBlockingQueue<>(Math.max(1, size));
+		for (int i = 0; i < Math.max(1, size); i++) {
+			this.idle.add(connection.createChannel());
+		}
+	}
+
+	/**
+	 * Take a channel from the pool, waiting until one is available. Channels
+	 * closed along with the connection are recovered with it, so only channels
+	 * closed by a channel error while the connection is open are replaced.
+	 *
+	 * @return A channel for use by the current thread only.
+	 * @throws IOException          If a closed channel could not be replaced.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public Channel borrow() throws IOException, InterruptedException {
+		Channel channel = this.idle.take();
+		if (channel.isOpen() || !this.connection.isOpen()) {
+			return channel;
+		}
+
+		Channel replacement = null;
+		try {
+			replacement = this.connection.createChannel();
+			if (replacement == null) {
+				throw new IOException("No channel available on the connection");
+			}
+			return replacement;
+		} finally {
+			// keep the pool size by returning the closed channel to be replaced later
+			if (replacement == null) {
+				this.idle.add(channel);
+			}
+		}
+	}
+
+	/**
+	 * Return a channel taken with {@link #borrow()} to the pool.
+	 *
+	 * @param channel The channel to return.
+	 */
+	public void release(Channel channel) {
+		this.idle.add(channel);
+	}
+
+	/**
+	 * Close the channels in the pool.
+	 */
+	public void close() {
+		for (Channel channel : this.idle) {
+			try {
+				if (channel.isOpen()) {
+					channel.close();
+				}
+			} catch (IOException | TimeoutException e) {
+				Log.error(e.getMessage(), CLASS_NAME + ":close");
+			}
+		}
+	}
+}
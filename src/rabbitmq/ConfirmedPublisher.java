@@ -0,0 +1,245 @@
+package rabbitmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+
+import constants.Constants;
+import logging.Log;
+
+/**
+ * Publish messages from an outbox on a channel in confirm mode. Messages are
+ * published without waiting for each confirmation and are tracked by delivery
+ * tag, so a single confirmation from the server can complete a whole batch.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class ConfirmedPublisher {
+
+	private static final String CLASS_NAME = ConfirmedPublisher.class.getName();
+
+	private final Connection connection;
+	private volatile Channel channel;
+	private final BlockingQueue<PendingPublish> outbox;
+	private final BiConsumer<PendingPublish, Exception> unpublished;
+	private final Thread publisher;
+	private volatile boolean closed = false;
+
+	// Key: delivery tag, Value: message waiting for confirmation
+	private final NavigableMap<Long, PendingPublish> unconfirmed = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Constructor for creating a ConfirmedPublisher and starting the thread
+	 * publishing from the outbox.
+	 *
+	 * @param connection     The connection to create the publishing channel on.
+	 * @param outboxCapacity The number of messages the outbox can hold before
+	 *                       submitting blocks.
+	 * @param unpublished    Called with messages that could not be published,
+	 *                       including the messages still unconfirmed when the
+	 *                       channel shuts down.
+	 * @throws IOException If the channel could not be created or put in confirm
+	 *                     mode.
+	 */
+	public ConfirmedPublisher(Connection connection, int outboxCapacity,
+			BiConsumer<PendingPublish, Exception> unpublished) throws IOException {
+		this.connection = connection;
+		this.unpublished = unpublished;
+		this.outbox = new ArrayBlockingQueue<>(Math.max(1, outboxCapacity));
+		this.channel = openChannel();
+
+		this.publisher = new Thread(this::publishOutbox, "confirmed-publisher");
+		this.publisher.setDaemon(true);
+		this.publisher.start();
+	}
+
+	/**
+	 * Create a channel in confirm mode completing the unconfirmed messages as the
+	 * server confirms them.
+	 *
+	 * @return The channel to publish on.
+	 * @throws IOException If the channel could not be created or put in confirm
+	 *                     mode.
+	 */
+	private Channel openChannel() throws IOException {
+		Channel channel = this.connection.createChannel();
+		if (channel == null) {
+			throw new IOException("No channel available on the connection");
+		}
+		channel.confirmSelect();
+		channel.addConfirmListener(new ConfirmListener() {
+
+			@Override
+			public void handleAck(long deliveryTag, boolean multiple) {
+				for (PendingPublish pending : confirmed(deliveryTag, multiple)) {
+					pending.getConfirmed().complete(null);
+				}
+			}
+
+			@Override
+			public void handleNack(long deliveryTag, boolean multiple) {
+				for (PendingPublish pending : confirmed(deliveryTag, multiple)) {
+					pending.getConfirmed()
+							.completeExceptionally(new IOException("Message rejected by RabbitMQ server"));
+				}
+			}
+		});
+		// the server never confirms messages published before the channel closed, so
+		// hand them back to be buffered until the connection recovers or failed
+		channel.addShutdownListener(cause -> {
+			for (PendingPublish pending : confirmed(Long.MAX_VALUE, true)) {
+				this.unpublished.accept(pending, cause);
+			}
+		});
+		return channel;
+	}
+
+	/**
+	 * Add a message to the outbox, waiting while the outbox is full.
+	 *
+	 * @param pending The message to publish.
+	 * @return A future completed once the server confirms the message.
+	 */
+	public CompletableFuture<Void> submit(PendingPublish pending) {
+		try {
+			this.outbox.put(pending);
+		} catch (InterruptedException e) {
+			pending.getConfirmed().completeExceptionally(e);
+			Thread.currentThread().interrupt();
+		}
+		// messages submitted after the outbox was last drained are never published
+		if (this.closed && this.outbox.remove(pending)) {
+			pending.getConfirmed().completeExceptionally(new IOException("Publisher confirms disabled"));
+		}
+		return pending.getConfirmed();
+	}
+
+	/**
+	 * Stop publishing from the outbox. The messages already submitted are
+	 * published and the server's confirmations are waited on for up to
+	 * {@link Constants#CONFIRM_CLOSE_MILLIS} before the channel is closed.
+	 */
+	public void close() {
+		this.closed = true;
+		this.publisher.interrupt();
+	}
+
+	/**
+	 * Remove the messages confirmed by the server from the unconfirmed messages.
+	 *
+	 * @param deliveryTag The delivery tag confirmed.
+	 * @param multiple    True if every delivery tag up to and including
+	 *                    deliveryTag is confirmed.
+	 * @return The messages confirmed.
+	 */
+	private List<PendingPublish> confirmed(long deliveryTag, boolean multiple) {
+		List<PendingPublish> confirmed = new ArrayList<>();
+		if (multiple) {
+			Map<Long, PendingPublish> batch = this.unconfirmed.headMap(deliveryTag, true);
+			confirmed.addAll(batch.values());
+			batch.clear();
+		} else {
+			PendingPublish pending = this.unconfirmed.remove(deliveryTag);
+			if (pending != null) {
+				confirmed.add(pending);
+			}
+		}
+		return confirmed;
+	}
+
+	/**
+	 * Publish messages from the outbox until the publisher is closed, then wait
+	 * for the remaining confirmations and close the channel.
+	 */
+	private void publishOutbox() {
+		List<PendingPublish> batch = new ArrayList<>();
+		while (!this.closed) {
+			try {
+				batch.add(this.outbox.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			this.outbox.drainTo(batch);
+			publish(batch);
+			batch.clear();
+		}
+
+		this.outbox.drainTo(batch);
+		publish(batch);
+		Channel channel = this.channel;
+		try {
+			if (!channel.waitForConfirms(Constants.CONFIRM_CLOSE_MILLIS)) {
+				Log.error("Messages rejected by RabbitMQ server while closing", CLASS_NAME + ":close");
+			}
+		} catch (InterruptedException | TimeoutException | RuntimeException e) {
+			Log.error("Closing with unconfirmed messages: " + e.getMessage(), CLASS_NAME + ":close");
+		}
+		// the shutdown listener fails the messages still unconfirmed
+		try {
+			if (channel.isOpen()) {
+				channel.close();
+			}
+		} catch (IOException | TimeoutException | RuntimeException e) {
+			Log.error(e.getMessage(), CLASS_NAME + ":close");
+		}
+	}
+
+	/**
+	 * Publish a batch of messages without waiting for their confirmations.
+	 *
+	 * @param batch The messages to publish.
+	 */
+	private void publish(List<PendingPublish> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Channel channel = currentChannel();
+		for (PendingPublish pending : batch) {
+			long deliveryTag = channel.getNextPublishSeqNo();
+			this.unconfirmed.put(deliveryTag, pending);
+			try {
+				channel.basicPublish(pending.getExchange(), pending.getRoutingKey(), pending.getProperties(),
+						pending.getBody());
+				Log.sent(pending::getDescription);
+			} catch (IOException | RuntimeException e) {
+				// the shutdown listener may already have handed the message back
+				if (this.unconfirmed.remove(deliveryTag, pending)) {
+					this.unpublished.accept(pending, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the channel to publish on, replacing the channel if a channel error
+	 * closed it while the connection is open. Channels closed along with the
+	 * connection are recovered with it.
+	 *
+	 * @return The channel to publish on.
+	 */
+	private Channel currentChannel() {
+		Channel channel = this.channel;
+		if (channel.isOpen() || !this.connection.isOpen()) {
+			return channel;
+		}
+		try {
+			this.channel = openChannel();
+		} catch (IOException | RuntimeException e) {
+			Log.error("Failed to reopen the confirm channel: " + e.getMessage(), CLASS_NAME + ":currentChannel");
+		}
+		return this.channel;
+	}
+}
@@ -0,0 +1,218 @@
+package rabbitmq;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import logging.Log;
+
+/**
+ * Collect encoded messages for the same routing key so they can be published
+ * together as one batch. A batch is sent once the linger time has passed since
+ * its first message or once it reaches the message or size limit, whichever
+ * comes first. Batches for the same routing key are sent in order, and batches
+ * are sent without holding the lock so different routing keys are published in
+ * parallel.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class MessageBatcher {
+
+	private static final String CLASS_NAME = MessageBatcher.class.getName();
+
+	private final long lingerMillis;
+	private final int maxMessages;
+	private final int maxBytes;
+	private final Consumer<Batch> sender;
+	private final ScheduledExecutorService linger;
+
+	// Key: routing key, Value: batch being collected
+	private final Map<String, Batch> batches = new HashMap<>();
+	// Key: routing key being sent, Value: batches waiting for the batch being sent
+	private final Map<String, Deque<Batch>> sending = new HashMap<>();
+
+	/**
+	 * Constructor for creating a MessageBatcher.
+	 *
+	 * @param lingerMillis How long the first message of a batch waits for others.
+	 * @param maxMessages  The number of messages that sends a batch immediately.
+	 * @param maxBytes     The size in bytes that sends a batch immediately.
+	 * @param sender       Called with each batch to send, in order for each
+	 *                     routing key.
+	 */
+	public MessageBatcher(long lingerMillis, int maxMessages, int maxBytes, Consumer<Batch> sender) {
+		this.lingerMillis = lingerMillis;
+		this.maxMessages = Math.max(1, maxMessages);
+		this.maxBytes = maxBytes;
+		this.sender = sender;
+		this.linger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "message-batcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Add an encoded message to the batch for its routing key. Messages with a
+	 * different content type than the batch being collected start a new batch.
+	 *
+	 * @param contentType The content type of the encoded message.
+	 * @param pending     The message to send.
+	 */
+	public void add(String contentType, PendingPublish pending) {
+		Batch toSend = null;
+		synchronized (this) {
+			Batch batch = this.batches.get(pending.getRoutingKey());
+			if (batch != null && !Objects.equals(batch.contentType, contentType)) {
+				toSend = take(batch);
+				batch = null;
+			}
+			if (batch == null) {
+				batch = new Batch(pending.getRoutingKey(), contentType);
+				this.batches.put(pending.getRoutingKey(), batch);
+				Batch lingering = batch;
+				this.linger.schedule(() -> flushIfCurrent(lingering), this.lingerMillis, TimeUnit.MILLISECONDS);
+			}
+			batch.messages.add(pending);
+			batch.bytes += pending.getBody().length;
+			if (batch.messages.size() >= this.maxMessages || batch.bytes >= this.maxBytes) {
+				Batch full = take(batch);
+				if (toSend == null) {
+					toSend = full;
+				}
+			}
+		}
+		send(toSend);
+	}
+
+	/**
+	 * Send every batch being collected and stop the linger thread.
+	 */
+	public void close() {
+		List<Batch> toSend = new ArrayList<>();
+		synchronized (this) {
+			for (Batch batch : new ArrayList<>(this.batches.values())) {
+				Batch taken = take(batch);
+				if (taken != null) {
+					toSend.add(taken);
+				}
+			}
+			this.linger.shutdown();
+		}
+		for (Batch batch : toSend) {
+			send(batch);
+		}
+	}
+
+	/**
+	 * Send a batch once its linger time has passed if it was not already sent.
+	 *
+	 * @param batch The batch.
+	 */
+	private void flushIfCurrent(Batch batch) {
+		Batch toSend = null;
+		synchronized (this) {
+			if (this.batches.get(batch.routingKey) == batch) {
+				toSend = take(batch);
+			}
+		}
+		send(toSend);
+	}
+
+	/**
+	 * Stop collecting a batch and queue it behind the batches of its routing key
+	 * already being sent. Must be called while holding the lock.
+	 *
+	 * @param batch The batch.
+	 * @return The batch if the caller must send it, or null if it is queued for
+	 *         the thread sending the routing key.
+	 */
+	private Batch take(Batch batch) {
+		this.batches.remove(batch.routingKey, batch);
+		Deque<Batch> queued = this.sending.get(batch.routingKey);
+		if (queued != null) {
+			queued.add(batch);
+			return null;
+		}
+		this.sending.put(batch.routingKey, new ArrayDeque<>());
+		return batch;
+	}
+
+	/**
+	 * Send a batch, then the batches queued for its routing key while it was
+	 * sent, without holding the lock.
+	 *
+	 * @param batch The batch returned by {@link #take(Batch)} or null.
+	 */
+	private void send(Batch batch) {
+		if (batch == null) {
+			return;
+		}
+		String routingKey = batch.routingKey;
+		while (batch != null) {
+			try {
+				this.sender.accept(batch);
+			} catch (RuntimeException e) {
+				Log.error("Failed to send batch: " + e.getMessage(), CLASS_NAME + ":send");
+			}
+			synchronized (this) {
+				batch = this.sending.get(routingKey).poll();
+				if (batch == null) {
+					this.sending.remove(routingKey);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Messages for the same routing key sent together.
+	 */
+	public static class Batch {
+
+		private final String routingKey;
+		private final String contentType;
+		private final List<PendingPublish> messages = new ArrayList<>();
+		private int bytes = 0;
+
+		private Batch(String routingKey, String contentType) {
+			this.routingKey = routingKey;
+			this.contentType = contentType;
+		}
+
+		/**
+		 * Get the routing key of the messages.
+		 *
+		 * @return The routing key.
+		 */
+		public String getRoutingKey() {
+			return this.routingKey;
+		}
+
+		/**
+		 * Get the content type of the encoded messages.
+		 *
+		 * @return The content type.
+		 */
+		public String getContentType() {
+			return this.contentType;
+		}
+
+		/**
+		 * Get the messages in the order they were added.
+		 *
+		 * @return The messages.
+		 */
+		public List<PendingPublish> getMessages() {
+			return this.messages;
+		}
+	}
+}
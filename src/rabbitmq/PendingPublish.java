@@ -0,0 +1,95 @@
+package rabbitmq;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * A message waiting to be published and confirmed by the RabbitMQ server.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class PendingPublish {
+
+	private final String exchange;
+	private final String routingKey;
+	private final AMQP.BasicProperties properties;
+	private final byte[] body;
+	private final Supplier<String> description;
+	private final CompletableFuture<Void> confirmed = new CompletableFuture<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param exchange    The exchange to publish the message to.
+	 * @param routingKey  The routing key for the message.
+	 * @param properties  The AMQP properties of the message.
+	 * @param body        The encoded message.
+	 * @param description Supplies the message as logged when it is sent, only
+	 *                    called if the message is logged.
+	 */
+	public PendingPublish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body,
+			Supplier<String> description) {
+		this.exchange = exchange;
+		this.routingKey = routingKey;
+		this.properties = properties;
+		this.body = body;
+		this.description = description;
+	}
+
+	/**
+	 * Get the exchange to publish the message to.
+	 *
+	 * @return The exchange name.
+	 */
+	public String getExchange() {
+		return this.exchange;
+	}
+
+	/**
+	 * Get the routing key for the message.
+	 *
+	 * @return The routing key.
+	 */
+	public String getRoutingKey() {
+		return this.routingKey;
+	}
+
+	/**
+	 * Get the AMQP properties of the message.
+	 *
+	 * @return The message properties.
+	 */
+	public AMQP.BasicProperties getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Get the encoded message.
+	 *
+	 * @return The message body.
+	 */
+	public byte[] getBody() {
+		return this.body;
+	}
+
+	/**
+	 * Get the message as logged when it is sent.
+	 *
+	 * @return The message description.
+	 */
+	public String getDescription() {
+		return this.description.get();
+	}
+
+	/**
+	 * Get the future completed once the server confirms the message.
+	 *
+	 * @return The confirmation future.
+	 */
+	public CompletableFuture<Void> getConfirmed() {
+		return this.confirmed;
+	}
+}
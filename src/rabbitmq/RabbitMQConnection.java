@@ -4,16 +4,38 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryDelayHandler;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.recovery.AutorecoveringConnection;
 
 import api.ResearchAPI;
 import constants.Constants;
 import logging.Log;
+import message.FileData;
 import message.Message;
+import message.MessageCodec;
+import message.MessageFilter;
 import user.User;
 
 /**
@@ -30,12 +52,33 @@ public class RabbitMQConnection {
 	private static final String EXCHANGE_NAME = "research";
 	private static final String EXCHANGE_TYPE = "direct";
 	private static final String ANNOUNCE_ROUTING_KEY = "announce";
+	private static final String TOPIC_EXCHANGE_NAME = "research.topic";
+	private static final String TOPIC_EXCHANGE_TYPE = "topic";
+	private static final String TRANSLATE_ROUTING_KEY = "translate";
+	// sender-selected distribution header for extra routing keys
+	private static final String CC_HEADER = "CC";
 	private static final String SENT = " [x] Sent ";
 
 	private User user;
 	private Connection connection;
 	private Channel channel;
-	private String queueName;
+	private ChannelPool publishChannels;
+	private volatile ConfirmedPublisher confirmedPublisher;
+	private volatile MessageBatcher batcher;
+	private long batchLingerMillis = -1;
+	private volatile String contentType = Constants.CONTENT_TYPE_JSON;
+	// size above which messages are compressed, negative to never compress
+	private volatile int compressionThreshold = -1;
+	// server-named queue, renamed when the topology is recovered
+	private volatile String queueName;
+
+	// announcements routed by format, with the formats the queue is bound to
+	private volatile boolean topicRouting = false;
+	private final Set<String> topicBindings = ConcurrentHashMap.newKeySet();
+
+	// messages published while the connection is down, sent once it recovers
+	private final Deque<PendingPublish> outageBuffer = new ArrayDeque<>();
+	private volatile boolean recovering = false;
 
 	/**
 	 * Constructor for creating a RabbitMQConnection.
@@ -53,7 +96,12 @@ public class RabbitMQConnection {
 
 		ConnectionFactory factory = null;
 
-		if (!uri.isEmpty()) {
+		if (uri.isEmpty()) {
+			factory = getDefaultConnectionFactory();
+			if (factory == null) {
+				return;
+			}
+		} else {
 			try {
 				factory = getConnectionFactory(uri);
 			} catch (KeyManagementException | NoSuchAlgorithmException | NullPointerException | URISyntaxException e) {
@@ -69,17 +117,24 @@ public class RabbitMQConnection {
 		}
 
 		try {
+			enableRecovery(factory);
 			connection = factory.newConnection();
 			if (connection == null) {
 				factory = getDefaultConnectionFactory();
+				enableRecovery(factory);
 				connection = factory.newConnection();
 			}
+			addRecoveryListeners();
 			channel = connection.createChannel();
 			channel.exchangeDeclare(EXCHANGE_NAME, EXCHANGE_TYPE);
 			queueName = channel.queueDeclare().getQueue();
 
 			channel.queueBind(queueName, EXCHANGE_NAME, ANNOUNCE_ROUTING_KEY);
 			channel.queueBind(queueName, EXCHANGE_NAME, this.user.getUserID());
+
+			// publish on separate channels so publishing threads do not share the consuming
+			// channel or each other's channels
+			publishChannels = new ChannelPool(connection, Constants.PUBLISH_CHANNEL_POOL_SIZE);
 		} catch (IOException | TimeoutException e) {
 			Log.error("Failed establishing connection and queues to RabbitMQ server, please double check input URI",
 					RESEARCH_API_CONNECT);
@@ -120,38 +175,514 @@ public class RabbitMQConnection {
 	}
 
 	/**
-	 * Announce a message to all users connected.
+	 * Recover the connection automatically with exponential backoff if it drops.
+	 * Recovery redeclares the exchange, the queue and its bindings and restarts
+	 * the consumer.
 	 * 
-	 * @param message The message to be sent.
+	 * @param factory The ConnectionFactory object.
+	 */
+	private void enableRecovery(ConnectionFactory factory) {
+		factory.setAutomaticRecoveryEnabled(true);
+		factory.setTopologyRecoveryEnabled(true);
+		factory.setRecoveryDelayHandler(new RecoveryDelayHandler.ExponentialBackoffDelayHandler());
+	}
+
+	/**
+	 * Track the renamed queue and send the messages buffered during the outage once
+	 * the connection recovers.
+	 */
+	private void addRecoveryListeners() {
+		if (connection instanceof AutorecoveringConnection) {
+			((AutorecoveringConnection) connection).addQueueRecoveryListener((oldName, newName) -> {
+				if (oldName.equals(queueName)) {
+					queueName = newName;
+				}
+			});
+		}
+		if (connection instanceof Recoverable) {
+			((Recoverable) connection).addRecoveryListener(new RecoveryListener() {
+
+				@Override
+				public void handleRecoveryStarted(Recoverable recoverable) {
+					recovering = true;
+					Log.other("Connection to RabbitMQ server lost, recovering");
+				}
+
+				@Override
+				public void handleRecovery(Recoverable recoverable) {
+					Log.other("Connection to RabbitMQ server recovered");
+					recovering = false;
+					flushOutageBuffer();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Publish messages through an outbox with publisher confirms. Once enabled,
+	 * the futures returned by {@link #announce(Message)} and
+	 * {@link #direct(Message, String)} complete when the RabbitMQ server confirms
+	 * the message instead of when it is written to the socket.
+	 */
+	public void enablePublisherConfirms() {
+		if (this.confirmedPublisher != null || this.connection == null) {
+			return;
+		}
+		try {
+			this.confirmedPublisher = new ConfirmedPublisher(this.connection, Constants.OUTBOX_CAPACITY,
+					this::unpublished);
+		} catch (IOException e) {
+			Log.error("Failed to enable publisher confirms: " + e.getMessage(), CLASS_NAME + ":enablePublisherConfirms");
+		}
+	}
+
+	/**
+	 * Publish messages on the publishing channel pool again without waiting for
+	 * confirms. Messages already in the outbox are still published and confirmed.
+	 */
+	public void disablePublisherConfirms() {
+		ConfirmedPublisher publisher = this.confirmedPublisher;
+		if (publisher == null) {
+			return;
+		}
+		this.confirmedPublisher = null;
+		publisher.close();
+	}
+
+	/**
+	 * Route announcements by format through a topic exchange instead of sending
+	 * every announcement to every user. Announcements are published with the keys
+	 * {@code announce.<format>} and {@code translate.<original>.<destination>},
+	 * and the queue is only bound to the keys for the formats the user wants or
+	 * can convert, so the RabbitMQ server drops announcements the user cannot act
+	 * on. An announcement is published once with its other keys in the CC header,
+	 * and announcements without a format, such as removals of files without an
+	 * extension, use the plain {@code announce} key every queue is bound to.
+	 * Every user in the collaboration must use topic routing, since users without
+	 * it only receive announcements sent with the single announce key.
+	 */
+	public void enableTopicRouting() {
+		if (this.topicRouting || this.connection == null) {
+			return;
+		}
+		Channel topologyChannel = null;
+		try {
+			topologyChannel = publishChannels.borrow();
+			topologyChannel.exchangeDeclare(TOPIC_EXCHANGE_NAME, TOPIC_EXCHANGE_TYPE);
+			topologyChannel.queueUnbind(this.queueName, EXCHANGE_NAME, ANNOUNCE_ROUTING_KEY);
+			this.topicRouting = true;
+		} catch (IOException e) {
+			Log.error("Failed to enable topic routing: " + e.getMessage(), CLASS_NAME + ":enableTopicRouting");
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			if (topologyChannel != null) {
+				publishChannels.release(topologyChannel);
+			}
+		}
+		bindFormats();
+	}
+
+	/**
+	 * Route announcements through the direct exchange again, binding the queue to
+	 * the announce key every announcement is sent with and removing the topic
+	 * bindings.
 	 */
-	public void announce(Message message) {
+	public void disableTopicRouting() {
+		if (!this.topicRouting || this.connection == null) {
+			return;
+		}
+		Channel topologyChannel = null;
 		try {
-			channel.basicPublish(EXCHANGE_NAME, ANNOUNCE_ROUTING_KEY, null, message.toJSON().getBytes());
-			String sent = SENT + message;
-			Log.sent(sent);
+			topologyChannel = publishChannels.borrow();
+			topologyChannel.queueBind(this.queueName, EXCHANGE_NAME, ANNOUNCE_ROUTING_KEY);
+			this.topicRouting = false;
+			for (String key : this.topicBindings) {
+				topologyChannel.queueUnbind(this.queueName, TOPIC_EXCHANGE_NAME, key);
+				this.topicBindings.remove(key);
+			}
 		} catch (IOException e) {
-			Log.error(e.getMessage(), CLASS_NAME + ":" + ANNOUNCE_ROUTING_KEY);
+			Log.error("Failed to disable topic routing: " + e.getMessage(), CLASS_NAME + ":disableTopicRouting");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (topologyChannel != null) {
+				publishChannels.release(topologyChannel);
+			}
+		}
+	}
+
+	/**
+	 * Bind the queue to the topic routing keys for formats added since the last
+	 * call. Called whenever the user adds formats wanted or formats that can be
+	 * converted.
+	 */
+	public void bindFormats() {
+		if (!this.topicRouting) {
+			return;
+		}
+		List<String> keys = new ArrayList<>();
+		// announcements without a format
+		keys.add(ANNOUNCE_ROUTING_KEY);
+		for (String want : this.user.getWantFormats()) {
+			keys.add(ANNOUNCE_ROUTING_KEY + "." + want);
+			keys.add(TRANSLATE_ROUTING_KEY + ".*." + want);
+		}
+		for (String original : this.user.getConvertFormats().keySet()) {
+			keys.add(ANNOUNCE_ROUTING_KEY + "." + original);
+		}
+
+		Channel topologyChannel = null;
+		try {
+			for (String key : keys) {
+				if (this.topicBindings.contains(key)) {
+					continue;
+				}
+				if (topologyChannel == null) {
+					topologyChannel = publishChannels.borrow();
+				}
+				topologyChannel.queueBind(this.queueName, TOPIC_EXCHANGE_NAME, key);
+				this.topicBindings.add(key);
+			}
+		} catch (IOException e) {
+			Log.error("Failed to bind formats: " + e.getMessage(), CLASS_NAME + ":bindFormats");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (topologyChannel != null) {
+				publishChannels.release(topologyChannel);
+			}
+		}
+	}
+
+	/**
+	 * Check if announcements are routed by format.
+	 * 
+	 * @return True if topic routing is enabled.
+	 */
+	public boolean isTopicRouting() {
+		return this.topicRouting;
+	}
+
+	/**
+	 * Set the encoding used for sent messages. Received messages are decoded using
+	 * their own content type, so the binary encoding should only be used when
+	 * every user can decode it.
+	 * 
+	 * @param contentType {@link Constants#CONTENT_TYPE_JSON} or
+	 *                    {@link Constants#CONTENT_TYPE_BINARY}.
+	 */
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Compress sent messages larger than the threshold with deflate, marking them
+	 * with the AMQP content encoding. Received messages are decompressed using
+	 * their own content encoding.
+	 * 
+	 * @param compressionThreshold The size in bytes above which messages are
+	 *                             compressed, negative to never compress.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Publish direct messages to the same user together as one batch, waiting up
+	 * to lingerMillis for more messages. Receivers unpack the batch into separate
+	 * messages.
+	 * 
+	 * @param lingerMillis How long a direct message waits for others to the same
+	 *                     user, negative to stop batching.
+	 */
+	public synchronized void setBatching(long lingerMillis) {
+		if (lingerMillis == this.batchLingerMillis || (lingerMillis < 0 && this.batchLingerMillis < 0)) {
+			return;
+		}
+		this.batchLingerMillis = lingerMillis;
+		MessageBatcher previous = this.batcher;
+		this.batcher = lingerMillis < 0 ? null
+				: new MessageBatcher(lingerMillis, Constants.BATCH_MAX_MESSAGES, Constants.BATCH_MAX_BYTES,
+						this::sendBatch);
+		if (previous != null) {
+			previous.close();
 		}
 	}
 
+	/**
+	 * Announce a message to all users connected.
+	 * 
+	 * @param message The message to be sent.
+	 * @return A future completed once the message is sent, or confirmed by the
+	 *         server if publisher confirms are enabled.
+	 */
+	public CompletableFuture<Void> announce(Message message) {
+		String methodName = CLASS_NAME + ":" + ANNOUNCE_ROUTING_KEY;
+		if (!this.topicRouting) {
+			return publish(EXCHANGE_NAME, ANNOUNCE_ROUTING_KEY, message, methodName);
+		}
+
+		// published once, with the keys of the other formats as CC so the server
+		// delivers one copy to each queue bound to any of them
+		List<String> routingKeys = new ArrayList<>(getTopicRoutingKeys(message));
+		if (routingKeys.isEmpty()) {
+			// every user is bound to the plain announce key
+			routingKeys.add(ANNOUNCE_ROUTING_KEY);
+		}
+		String encoding = this.contentType;
+		Map<String, Object> headers = MessageFilter.getHeaders(message);
+		if (routingKeys.size() > 1) {
+			headers.put(CC_HEADER, new ArrayList<Object>(routingKeys.subList(1, routingKeys.size())));
+		}
+		AMQP.BasicProperties.Builder properties = new AMQP.BasicProperties.Builder().contentType(encoding)
+				.headers(headers);
+		byte[] body = MessageCodec.encode(message, encoding);
+		return send(compress(TOPIC_EXCHANGE_NAME, routingKeys.get(0), properties, body, () -> SENT + message),
+				methodName);
+	}
+
+	/**
+	 * Get the topic routing keys for an announcement.
+	 * 
+	 * @param message The announcement.
+	 * @return A key for each format announced or each translation offered.
+	 */
+	private Set<String> getTopicRoutingKeys(Message message) {
+		Set<String> keys = new LinkedHashSet<>();
+		if (Objects.equals(message.getMessageType(), Constants.CAN_TRANSLATE)) {
+			for (Map.Entry<String, ArrayList<String>> entry : message.getConvertFormats().entrySet()) {
+				for (String destination : entry.getValue()) {
+					keys.add(TRANSLATE_ROUTING_KEY + "." + entry.getKey() + "." + destination);
+				}
+			}
+			return keys;
+		}
+
+		for (FileData file : message.getFileData()) {
+			if (file.getFormat() != null) {
+				keys.add(ANNOUNCE_ROUTING_KEY + "." + file.getFormat());
+			}
+		}
+		for (String removed : message.getRemovedFiles()) {
+			String format = FileData.formatOf(removed);
+			if (format != null) {
+				keys.add(ANNOUNCE_ROUTING_KEY + "." + format);
+			}
+		}
+		return keys;
+	}
+
 	/**
 	 * Send a direct message to another user.
 	 * 
 	 * @param message The message to be sent.
 	 * @param userID  The ID of the intended user.
+	 * @return A future completed once the message is sent, or confirmed by the
+	 *         server if publisher confirms are enabled.
+	 */
+	public CompletableFuture<Void> direct(Message message, String userID) {
+		MessageBatcher directBatcher = this.batcher;
+		if (directBatcher == null) {
+			return publish(EXCHANGE_NAME, userID, message, CLASS_NAME + ":" + EXCHANGE_TYPE);
+		}
+
+		String encoding = this.contentType;
+		AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().contentType(encoding)
+				.headers(MessageFilter.getHeaders(message)).build();
+		PendingPublish pending = new PendingPublish(EXCHANGE_NAME, userID, properties,
+				MessageCodec.encode(message, encoding), () -> SENT + message);
+		directBatcher.add(encoding, pending);
+		return pending.getConfirmed();
+	}
+
+	/**
+	 * Send a batch of direct messages as one message, or on its own if the batch
+	 * has a single message, completing each message once the batch is sent.
+	 * 
+	 * @param batch The batch to send.
+	 */
+	private void sendBatch(MessageBatcher.Batch batch) {
+		List<PendingPublish> messages = batch.getMessages();
+		String methodName = CLASS_NAME + ":" + EXCHANGE_TYPE;
+		CompletableFuture<Void> sent;
+		if (messages.size() == 1) {
+			PendingPublish single = messages.get(0);
+			sent = send(compress(single.getExchange(), single.getRoutingKey(), single.getProperties().builder(),
+					single.getBody(), single::getDescription), methodName);
+		} else {
+			List<byte[]> bodies = new ArrayList<>(messages.size());
+			for (PendingPublish pending : messages) {
+				bodies.add(pending.getBody());
+			}
+			Map<String, Object> headers = new HashMap<>();
+			headers.put(Constants.USER_ID, this.user.getUserID());
+			headers.put(Constants.HEADER_BATCH_CONTENT_TYPE, batch.getContentType());
+			AMQP.BasicProperties.Builder properties = new AMQP.BasicProperties.Builder()
+					.contentType(Constants.CONTENT_TYPE_BATCH).headers(headers);
+			sent = send(compress(EXCHANGE_NAME, batch.getRoutingKey(), properties, MessageCodec.packBatch(bodies),
+					() -> describeBatch(messages)), methodName);
+		}
+
+		sent.whenComplete((result, error) -> {
+			for (PendingPublish pending : messages) {
+				if (error == null) {
+					pending.getConfirmed().complete(null);
+				} else {
+					pending.getConfirmed().completeExceptionally(error);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Describe the messages in a batch for logging.
+	 * 
+	 * @param messages The messages in the batch.
+	 * @return The description of each message on its own line.
 	 */
-	public void direct(Message message, String userID) {
+	private static String describeBatch(List<PendingPublish> messages) {
+		StringBuilder description = new StringBuilder(" [x] Sent batch of " + messages.size());
+		for (PendingPublish pending : messages) {
+			description.append(System.lineSeparator()).append(pending.getDescription());
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Publish a message through the outbox if publisher confirms are enabled or on
+	 * a channel from the publishing channel pool otherwise.
+	 * 
+	 * @param exchange   The exchange to publish the message to.
+	 * @param routingKey The routing key for the message.
+	 * @param message    The message to be sent.
+	 * @param methodName The name of the method logging errors.
+	 * @return A future completed once the message is sent or confirmed.
+	 */
+	private CompletableFuture<Void> publish(String exchange, String routingKey, Message message,
+			String methodName) {
+		String encoding = this.contentType;
+		// headers let receivers skip the message without decoding the body
+		AMQP.BasicProperties.Builder properties = new AMQP.BasicProperties.Builder().contentType(encoding)
+				.headers(MessageFilter.getHeaders(message));
+		byte[] body = MessageCodec.encode(message, encoding);
+		return send(compress(exchange, routingKey, properties, body, () -> SENT + message), methodName);
+	}
+
+	/**
+	 * Create the message to publish, compressing the body if it is larger than the
+	 * compression threshold.
+	 * 
+	 * @param exchange    The exchange to publish the message to.
+	 * @param routingKey  The routing key for the message.
+	 * @param properties  The AMQP properties of the message.
+	 * @param body        The encoded message.
+	 * @param description Supplies the message as logged when it is sent.
+	 * @return The message to publish.
+	 */
+	private PendingPublish compress(String exchange, String routingKey, AMQP.BasicProperties.Builder properties,
+			byte[] body, Supplier<String> description) {
+		int threshold = this.compressionThreshold;
+		if (threshold >= 0 && body.length > threshold) {
+			body = MessageCodec.compress(body);
+			properties.contentEncoding(Constants.CONTENT_ENCODING_DEFLATE);
+		}
+		return new PendingPublish(exchange, routingKey, properties.build(), body, description);
+	}
+
+	/**
+	 * Send an encoded message through the outbox if publisher confirms are enabled
+	 * or on a channel from the publishing channel pool otherwise.
+	 * 
+	 * @param pending    The message to be sent.
+	 * @param methodName The name of the method logging errors.
+	 * @return A future completed once the message is sent or confirmed.
+	 */
+	private CompletableFuture<Void> send(PendingPublish pending, String methodName) {
+		ConfirmedPublisher publisher = this.confirmedPublisher;
+		if (publisher != null) {
+			return publisher.submit(pending);
+		}
+
+		Channel publishChannel = null;
 		try {
-			channel.basicPublish(EXCHANGE_NAME, userID, null, message.toJSON().getBytes());
-			String sent = SENT + message;
-			Log.sent(sent);
-		} catch (IOException e) {
-			Log.error(e.getMessage(), CLASS_NAME + ":" + EXCHANGE_TYPE);
+			publishChannel = publishChannels.borrow();
+			publishChannel.basicPublish(pending.getExchange(), pending.getRoutingKey(), pending.getProperties(),
+					pending.getBody());
+			Log.sent(pending::getDescription);
+			pending.getConfirmed().complete(null);
+		} catch (IOException | AlreadyClosedException e) {
+			unpublished(pending, e);
+		} catch (InterruptedException e) {
+			Log.error("Interrupted waiting for a publishing channel", methodName);
+			pending.getConfirmed().completeExceptionally(e);
+			Thread.currentThread().interrupt();
+		} finally {
+			if (publishChannel != null) {
+				publishChannels.release(publishChannel);
+			}
+		}
+		return pending.getConfirmed();
+	}
+
+	/**
+	 * Handle a message that could not be published. Messages that failed because
+	 * the connection went down are buffered until it recovers, dropping the oldest
+	 * buffered message when the buffer is full. The buffer is sent right away if
+	 * the connection recovered while the message was being buffered.
+	 * 
+	 * @param pending The message that could not be published.
+	 * @param error   The reason it could not be published.
+	 */
+	private void unpublished(PendingPublish pending, Exception error) {
+		String methodName = CLASS_NAME + ":" + pending.getRoutingKey();
+		boolean connectionLost = error instanceof ShutdownSignalException
+				&& ((ShutdownSignalException) error).isHardError();
+		if (this.connection.isOpen() && !this.recovering && !connectionLost) {
+			Log.error(error.getMessage(), methodName);
+			pending.getConfirmed().completeExceptionally(error);
+			return;
+		}
+
+		PendingPublish dropped = null;
+		synchronized (this.outageBuffer) {
+			if (this.outageBuffer.size() >= Constants.OUTBOX_CAPACITY) {
+				dropped = this.outageBuffer.pollFirst();
+			}
+			this.outageBuffer.addLast(pending);
+		}
+		if (dropped != null) {
+			Log.error("Outbox full while disconnected, dropped: " + dropped.getDescription(), methodName);
+			dropped.getConfirmed().completeExceptionally(new IOException("Outbox full while disconnected"));
+		}
+
+		// the recovery listener may have flushed the buffer before the message was added
+		if (this.connection.isOpen() && !this.recovering) {
+			flushOutageBuffer();
+		}
+	}
+
+	/**
+	 * Send the messages buffered while the connection was down.
+	 */
+	private void flushOutageBuffer() {
+		List<PendingPublish> buffered;
+		synchronized (this.outageBuffer) {
+			buffered = new ArrayList<>(this.outageBuffer);
+			this.outageBuffer.clear();
+		}
+		if (!buffered.isEmpty()) {
+			Log.other("Sending " + buffered.size() + " messages buffered while disconnected");
+		}
+		for (PendingPublish pending : buffered) {
+			send(pending, CLASS_NAME + ":" + pending.getRoutingKey());
 		}
 	}
 
 	/**
-	 * Get the channel of the instance.
+	 * Get the channel used for consuming messages.
 	 * 
 	 * @return A Channel instance.
 	 */
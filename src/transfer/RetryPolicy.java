@@ -0,0 +1,80 @@
+package transfer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import constants.Constants;
+
+/**
+ * Decide whether and when a failed transfer is retried. Each key, such as the
+ * origin message ID of a request, has a budget of retries, and each retry waits
+ * twice as long as the one before, up to a maximum, with random jitter so users
+ * that failed together do not all retry at the same moment.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class RetryPolicy {
+
+	private final int maxRetries;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	// Key: retried key, Value: number of retries so far, the least recently used
+	// keys are forgotten
+	private final Map<String, Integer> retries = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > Constants.TRANSFER_RETRY_KEYS;
+		}
+	};
+
+	/**
+	 * Constructor for the default retry policy.
+	 */
+	public RetryPolicy() {
+		this(Constants.TRANSFER_RETRIES, Constants.TRANSFER_RETRY_BASE_MILLIS, Constants.TRANSFER_RETRY_MAX_MILLIS);
+	}
+
+	/**
+	 * Constructor for creating a RetryPolicy.
+	 *
+	 * @param maxRetries      The number of retries allowed for each key.
+	 * @param baseDelayMillis The delay before the first retry.
+	 * @param maxDelayMillis  The longest delay before a retry.
+	 */
+	public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+		this.maxRetries = maxRetries;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Record a failure and get how long to wait before retrying.
+	 *
+	 * @param key The key of the failed transfer.
+	 * @return The delay in milliseconds, or -1 if the retry budget is used up.
+	 */
+	public synchronized long nextDelay(String key) {
+		int attempt = this.retries.getOrDefault(key, 0);
+		if (attempt >= this.maxRetries) {
+			return -1;
+		}
+		this.retries.put(key, attempt + 1);
+		long delay = Math.min(this.maxDelayMillis, this.baseDelayMillis << Math.min(attempt, 30));
+		// wait between half and all of the delay
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * Forget the failures of a key, once its transfer succeeded or was given up.
+	 *
+	 * @param key The key of the transfer.
+	 */
+	public synchronized void reset(String key) {
+		this.retries.remove(key);
+	}
+}
@@ -0,0 +1,733 @@
+package transfer;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import constants.Constants;
+import logging.Log;
+import message.DigestCache;
+import message.FileData;
+import message.Message;
+import message.ReceivedFile;
+import message.ReceivedFileIndex;
+import rabbitmq.RabbitMQConnection;
+
+/**
+ * Transfer files over a direct TCP connection between the users. The sender
+ * listens on a port and sends a ticket naming its address and a random token
+ * for the file. The receiver connects and asks for the file with the token,
+ * and the file is streamed with {@link FileChannel#transferTo} and
+ * {@link FileChannel#transferFrom} so the file contents are not copied through
+ * the JVM.
+ *
+ * Files are not encrypted, so this backend is only for networks the
+ * collaboration trusts, such as a lab network. A failed transfer resumes from
+ * the bytes or chunks already written, with backoff between attempts.
+ *
+ * <pre>
+ * ticket:   socket://host:port/token
+ * request:  token (16 bytes), offset (8 bytes), length (8 bytes, -1 for the rest of the file)
+ * response: file size (8 bytes, -1 if the token is unknown), file contents
+ * </pre>
+ *
+ * Files of at least {@link Constants#SOCKET_CHUNKED_THRESHOLD} bytes are
+ * received as chunks requested over several connections at once, which fills
+ * high-latency links a single connection cannot.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class SocketTransfer implements TransferBackend, Closeable {
+
+	private static final String CLASS_NAME = SocketTransfer.class.getName();
+	private static final String TICKET_PREFIX = "socket://";
+	private static final int TOKEN_BYTES = 16;
+	private static final int REQUEST_BYTES = TOKEN_BYTES + 2 * Long.BYTES;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	// most bytes sent or received between progress updates
+	private static final long PROGRESS_STEP = 8 * 1024 * 1024;
+
+	private final ServerSocketChannel server;
+	private final String host;
+	private final int port;
+	private final int streams;
+	private final SecureRandom random = new SecureRandom();
+	// resumes of each ticket
+	private final RetryPolicy retries = new RetryPolicy();
+	private final ExecutorService transfers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "socket-transfer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// receivers are served by a fixed number of threads, so connections that never
+	// send a request cannot start threads without limit
+	private final ExecutorService serving = new ThreadPoolExecutor(Constants.SOCKET_SERVE_THREADS,
+			Constants.SOCKET_SERVE_THREADS, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(Constants.SOCKET_SERVE_THREADS), runnable -> {
+				Thread thread = new Thread(runnable, "socket-transfer-serve");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	// Key: token, Value: file offered with the token
+	private final Map<String, Offer> offers = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor for creating a SocketTransfer and listening for receivers.
+	 *
+	 * @param advertisedHost The host name or address receivers connect to, null to
+	 *                       use the address of the local host.
+	 * @param port           The port to listen on, 0 for any free port.
+	 * @throws IOException If the port cannot be listened on.
+	 */
+	public SocketTransfer(String advertisedHost, int port) throws IOException {
+		this(advertisedHost, port, Constants.SOCKET_TRANSFER_STREAMS);
+	}
+
+	/**
+	 * Constructor for creating a SocketTransfer receiving large files over several
+	 * connections at once.
+	 *
+	 * @param advertisedHost The host name or address receivers connect to, null to
+	 *                       use the address of the local host.
+	 * @param port           The port to listen on, 0 for any free port.
+	 * @param streams        The number of connections a large file is received
+	 *                       over, 1 to always use one connection.
+	 * @throws IOException If the port cannot be listened on.
+	 */
+	public SocketTransfer(String advertisedHost, int port, int streams) throws IOException {
+		this.streams = Math.max(1, streams);
+		this.server = ServerSocketChannel.open();
+		this.server.bind(new InetSocketAddress(port));
+		this.port = ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+		this.host = advertisedHost != null ? advertisedHost : InetAddress.getLocalHost().getHostAddress();
+
+		Thread accepting = new Thread(this::accept, "socket-transfer-server");
+		accepting.setDaemon(true);
+		accepting.start();
+		Log.other("Sending files over sockets at " + this.host + ":" + this.port);
+	}
+
+	@Override
+	public String getName() {
+		return Constants.SOCKET_TRANSFER;
+	}
+
+	@Override
+	public boolean accepts(String ticket) {
+		return ticket != null && ticket.startsWith(TICKET_PREFIX);
+	}
+
+	/**
+	 * Stop listening for receivers.
+	 */
+	@Override
+	public void close() {
+		try {
+			this.server.close();
+		} catch (IOException e) {
+			Log.error(e.getMessage(), CLASS_NAME + ":close");
+		}
+		this.transfers.shutdownNow();
+		this.serving.shutdownNow();
+	}
+
+	@Override
+	public CompletableFuture<Void> send(RabbitMQConnection connection, String userID, Message request,
+			Path filepath, TransferTracker tracker) {
+		byte[] token = new byte[TOKEN_BYTES];
+		this.random.nextBytes(token);
+		String tokenHex = HexFormat.of().formatHex(token);
+		Offer offer = new Offer(filepath, tracker);
+		this.offers.put(tokenHex, offer);
+		// the offer fails once the receiver has been idle for the ticket time, not
+		// after a fixed time, so slow links and long receive queues are not cut off
+		failWhenIdle(tokenHex, offer);
+
+		Message sendData = new Message(userID, Constants.SENT_DATA);
+		sendData.addFilePath(filepath.toString());
+		sendData.addOriginMessageID(request.getOriginMessageID());
+		sendData.addSourceUserID(userID);
+		sendData.addContent(TICKET_PREFIX + this.host + ":" + this.port + "/" + tokenHex);
+		connection.direct(sendData, request.getSenderID());
+		return offer.sent;
+	}
+
+	@Override
+	public CompletableFuture<ReceivedFile> receive(RabbitMQConnection connection, Message requestMessage,
+			String ticket, FileData file, String senderID, TransferTracker tracker) {
+		String filename = file.getFileName();
+		String checksum = file.getChecksum();
+		File receivedFile = ReceivedFileIndex.reserve(filename);
+		Path target = receivedFile.toPath();
+		Path part = target.resolveSibling(target.getFileName() + ".part");
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				Ticket parsed = new Ticket(ticket);
+				Checkpoint checkpoint = new Checkpoint(checksum != null, tracker);
+				while (true) {
+					try {
+						receiveFile(parsed, part, checkpoint);
+						break;
+					} catch (IOException e) {
+						// resume from what has been received, unless the sender no longer has the file
+						long delay = e instanceof UnknownTicketException ? -1 : this.retries.nextDelay(ticket);
+						if (delay < 0) {
+							throw e;
+						}
+						Log.error(String.format("Resuming '%s' in %d ms after: %s", filename, delay, e.getMessage()),
+								CLASS_NAME + ":receive");
+						Thread.sleep(delay);
+					}
+				}
+				this.retries.reset(ticket);
+				// the digest was computed as the bytes arrived, so the file is not read again
+				if (checksum != null && !checksum.equalsIgnoreCase(DigestCache.toChecksum(checkpoint.digest))) {
+					throw new IOException("Checksum does not match the checksum sent");
+				}
+				Files.move(part, target);
+				return new ReceivedFile(receivedFile, senderID, filename);
+			} catch (IOException | RuntimeException | InterruptedException e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				this.retries.reset(ticket);
+				part.toFile().delete();
+				receivedFile.delete();
+				ReceivedFileIndex.release(receivedFile);
+				Log.error("Failed to receive '" + filename + "' over socket: " + e.getMessage(),
+						CLASS_NAME + ":receive");
+				throw new CompletionException(e);
+			}
+		}, this.transfers);
+	}
+
+	/**
+	 * Fail an offer and stop serving it once nothing has been served for
+	 * {@link Constants#SOCKET_TICKET_MILLIS}, checking again when that time would
+	 * next pass.
+	 *
+	 * @param tokenHex The token of the offer.
+	 * @param offer    The offer.
+	 */
+	private void failWhenIdle(String tokenHex, Offer offer) {
+		long idleUntil = offer.lastActive + Constants.SOCKET_TICKET_MILLIS;
+		long wait = idleUntil - System.currentTimeMillis();
+		if (wait > 0) {
+			CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS).execute(() -> failWhenIdle(tokenHex, offer));
+			return;
+		}
+		this.offers.remove(tokenHex, offer);
+		offer.sent.completeExceptionally(
+				new TimeoutException("No bytes of '" + offer.filepath.getFileName() + "' requested for "
+						+ Constants.SOCKET_TICKET_MILLIS + " ms"));
+	}
+
+	/**
+	 * Accept receivers until the server is closed. Receivers connecting while
+	 * every serving thread is busy and the queue is full are disconnected and
+	 * resume later.
+	 */
+	private void accept() {
+		while (this.server.isOpen()) {
+			try {
+				SocketChannel receiver = this.server.accept();
+				try {
+					this.serving.execute(() -> serve(receiver));
+				} catch (RejectedExecutionException e) {
+					Log.error("Too many receivers connected, disconnecting " + receiver.getRemoteAddress(),
+							CLASS_NAME + ":accept");
+					receiver.close();
+				}
+			} catch (IOException e) {
+				if (this.server.isOpen()) {
+					Log.error(e.getMessage(), CLASS_NAME + ":accept");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the requested part of an offered file to a receiver. A receiver that
+	 * does not send its request within
+	 * {@link Constants#SOCKET_REQUEST_TIMEOUT_MILLIS} is disconnected.
+	 *
+	 * @param receiver The connection to the receiver.
+	 */
+	private void serve(SocketChannel receiver) {
+		try (SocketChannel channel = receiver) {
+			// reads from the channel itself cannot time out, reads from its socket's
+			// stream can
+			byte[] requestBytes = new byte[REQUEST_BYTES];
+			channel.socket().setSoTimeout(Constants.SOCKET_REQUEST_TIMEOUT_MILLIS);
+			new DataInputStream(channel.socket().getInputStream()).readFully(requestBytes);
+			ByteBuffer request = ByteBuffer.wrap(requestBytes);
+			byte[] token = new byte[TOKEN_BYTES];
+			request.get(token);
+			long offset = request.getLong();
+			long length = request.getLong();
+
+			// the ticket lasts while the receiver keeps requesting chunks, however long the
+			// whole file takes
+			Offer offer = this.offers.get(HexFormat.of().formatHex(token));
+			if (offer == null || offer.isIdle()) {
+				writeFully(channel, ByteBuffer.allocate(Long.BYTES).putLong(0, -1));
+				return;
+			}
+
+			offer.active();
+			try (FileChannel file = FileChannel.open(offer.filepath, StandardOpenOption.READ)) {
+				long size = file.size();
+				writeFully(channel, ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+				long start = Math.min(Math.max(0, offset), size);
+				long end = length < 0 ? size : Math.min(size, start + length);
+				long position = start;
+				try {
+					while (position < end) {
+						// sent in steps so progress can be reported
+						long sent = file.transferTo(position, Math.min(end - position, PROGRESS_STEP), channel);
+						position += sent;
+						offer.tracker.add(sent);
+						offer.active();
+					}
+				} finally {
+					// a receiver resumes from the bytes it received, so bytes sent before a
+					// failure are not sent again
+					offer.served(start, position, size);
+				}
+			}
+		} catch (IOException e) {
+			Log.error(e.getMessage(), CLASS_NAME + ":serve");
+		}
+	}
+
+	/**
+	 * Connect to the sender and write the rest of the file to the part file.
+	 * Large files are received as chunks over several connections at once.
+	 *
+	 * @param ticket     The ticket from the SENT_DATA message.
+	 * @param part       The file to write.
+	 * @param checkpoint What was received by earlier attempts.
+	 * @throws IOException If the file cannot be received.
+	 */
+	private void receiveFile(Ticket ticket, Path part, Checkpoint checkpoint) throws IOException {
+		if (checkpoint.size < 0 && this.streams > 1) {
+			// ask for no bytes to learn the size of the file
+			try (SocketChannel channel = connect(ticket)) {
+				checkpoint.size = request(channel, ticket, 0, 0);
+			}
+		}
+		if (this.streams > 1 && checkpoint.size >= Constants.SOCKET_CHUNKED_THRESHOLD) {
+			receiveChunks(ticket, part, checkpoint);
+			return;
+		}
+
+		// one stream, continuing from the end of the part file
+		try (SocketChannel channel = connect(ticket);
+				FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (checkpoint.digest != null && file.size() != checkpoint.digested) {
+				// continue from the last byte added to the digest
+				file.truncate(checkpoint.digested);
+			}
+			long position = file.size();
+			long size = request(channel, ticket, position, -1);
+			checkpoint.size = size;
+			if (position > size) {
+				file.truncate(0);
+				checkpoint.restart();
+				throw new IOException("Received more than the " + size + " bytes of the file");
+			}
+			checkpoint.tracker.set(position);
+			if (checkpoint.digest != null) {
+				receiveDigested(channel, file, position, size, checkpoint);
+				return;
+			}
+			while (position < size) {
+				// received in steps so progress can be reported
+				long received = file.transferFrom(channel, position, Math.min(size - position, PROGRESS_STEP));
+				if (received == 0) {
+					throw new EOFException("Connection closed after " + position + " of " + size + " bytes");
+				}
+				position += received;
+				checkpoint.tracker.add(received);
+			}
+		}
+	}
+
+	/**
+	 * Receive the rest of a file over one stream, adding each buffer to the digest
+	 * after it is written to the part file.
+	 *
+	 * @param channel    The connection to the sender.
+	 * @param file       The part file.
+	 * @param position   The position to write the next byte at.
+	 * @param size       The size of the file.
+	 * @param checkpoint What was received by earlier attempts.
+	 * @throws IOException If the file cannot be received.
+	 */
+	private static void receiveDigested(SocketChannel channel, FileChannel file, long position, long size,
+			Checkpoint checkpoint) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		while (position < size) {
+			buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed after " + position + " of " + size + " bytes");
+			}
+			buffer.flip();
+			int received = buffer.remaining();
+			while (buffer.hasRemaining()) {
+				position += file.write(buffer, position);
+			}
+			buffer.flip();
+			checkpoint.digest.update(buffer);
+			checkpoint.digested += received;
+			checkpoint.tracker.add(received);
+		}
+	}
+
+	/**
+	 * Receive the chunks of a file not received by earlier attempts over several
+	 * connections at once. Each chunk is read straight into a memory-mapped region
+	 * of a part file the full size of the received file.
+	 *
+	 * @param ticket     The ticket from the SENT_DATA message.
+	 * @param part       The file to write.
+	 * @param checkpoint What was received by earlier attempts.
+	 * @throws IOException If the file cannot be received.
+	 */
+	private void receiveChunks(Ticket ticket, Path part, Checkpoint checkpoint) throws IOException {
+		long size = checkpoint.size;
+		long chunks = (size + Constants.SOCKET_CHUNK_BYTES - 1) / Constants.SOCKET_CHUNK_BYTES;
+		Queue<Long> missing = new ConcurrentLinkedQueue<>();
+		long receivedBytes = 0;
+		for (long chunk = 0; chunk < chunks; chunk++) {
+			if (!checkpoint.isReceived(chunk)) {
+				missing.add(chunk);
+			} else {
+				receivedBytes += Math.min(Constants.SOCKET_CHUNK_BYTES, size - chunk * Constants.SOCKET_CHUNK_BYTES);
+			}
+		}
+		checkpoint.tracker.set(receivedBytes);
+		int streams = Math.min(this.streams, missing.size());
+
+		try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+			if (file.length() != size) {
+				file.setLength(size);
+			}
+			FileChannel channel = file.getChannel();
+
+			// each stream receives the next chunk nobody has taken until none are left
+			Runnable stream = () -> {
+				for (Long chunk = missing.poll(); chunk != null; chunk = missing.poll()) {
+					long offset = chunk * Constants.SOCKET_CHUNK_BYTES;
+					long length = Math.min(Constants.SOCKET_CHUNK_BYTES, size - offset);
+					try {
+						receiveChunk(ticket, channel, offset, length, checkpoint.tracker);
+						checkpoint.received(chunk, channel);
+					} catch (IOException e) {
+						throw new CompletionException(e);
+					}
+				}
+			};
+			CompletableFuture<?>[] running = new CompletableFuture<?>[streams];
+			for (int i = 0; i < streams; i++) {
+				running[i] = CompletableFuture.runAsync(stream, this.transfers);
+			}
+			try {
+				CompletableFuture.allOf(running).join();
+			} catch (CompletionException e) {
+				// stop the other streams at their next chunk
+				missing.clear();
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Receive one chunk of a file into its region of the file.
+	 *
+	 * @param ticket The ticket from the SENT_DATA message.
+	 * @param file   The file being received.
+	 * @param offset The position of the chunk in the file.
+	 * @param length  The length of the chunk.
+	 * @param tracker Counts the bytes received.
+	 * @throws IOException If the chunk cannot be received.
+	 */
+	private static void receiveChunk(Ticket ticket, FileChannel file, long offset, long length,
+			TransferTracker tracker) throws IOException {
+		try (SocketChannel channel = connect(ticket)) {
+			request(channel, ticket, offset, length);
+			MappedByteBuffer region = file.map(FileChannel.MapMode.READ_WRITE, offset, length);
+			while (region.hasRemaining()) {
+				int received = channel.read(region);
+				if (received < 0) {
+					throw new EOFException("Connection closed");
+				}
+				tracker.add(received);
+			}
+		}
+	}
+
+	/**
+	 * Connect to the user sending a file.
+	 *
+	 * @param ticket The ticket from the SENT_DATA message.
+	 * @return The connection.
+	 * @throws IOException If the user cannot be connected to.
+	 */
+	private static SocketChannel connect(Ticket ticket) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(ticket.host, ticket.port),
+					Constants.SOCKET_CONNECT_TIMEOUT_MILLIS);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * Ask the sender for part of the file.
+	 *
+	 * @param channel The connection to the sender.
+	 * @param ticket  The ticket from the SENT_DATA message.
+	 * @param offset  The position of the first byte wanted.
+	 * @param length  The number of bytes wanted, -1 for the rest of the file.
+	 * @return The size of the whole file.
+	 * @throws IOException If the ticket is not known by the sender.
+	 */
+	private static long request(SocketChannel channel, Ticket ticket, long offset, long length) throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(REQUEST_BYTES).put(ticket.token).putLong(offset).putLong(length);
+		request.flip();
+		writeFully(channel, request);
+
+		ByteBuffer response = ByteBuffer.allocate(Long.BYTES);
+		readFully(channel, response);
+		long size = response.getLong(0);
+		if (size < 0) {
+			throw new UnknownTicketException();
+		}
+		return size;
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed");
+			}
+		}
+	}
+
+	private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * The address of the sender and the token of a file, parsed from a ticket.
+	 */
+	private static class Ticket {
+
+		private final String host;
+		private final int port;
+		private final byte[] token;
+
+		// socket://host:port/token
+		private Ticket(String ticket) throws IOException {
+			String address = ticket.substring(TICKET_PREFIX.length());
+			int slash = address.lastIndexOf('/');
+			int colon = address.lastIndexOf(':', slash);
+			if (slash < 0 || colon < 0) {
+				throw new IOException("Malformed ticket: " + ticket);
+			}
+			try {
+				this.host = address.substring(0, colon);
+				this.port = Integer.parseInt(address.substring(colon + 1, slash));
+				this.token = HexFormat.of().parseHex(address.substring(slash + 1));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Malformed ticket: " + ticket);
+			}
+			if (this.token.length != TOKEN_BYTES) {
+				throw new IOException("Malformed ticket: " + ticket);
+			}
+		}
+	}
+
+	/**
+	 * What has been received of a file, kept between attempts so a failed
+	 * transfer resumes where it stopped.
+	 */
+	private static class Checkpoint {
+
+		// size of the file, -1 until the sender has been asked
+		private volatile long size = -1;
+		// chunks written to the part file when receiving chunks
+		private final BitSet chunks = new BitSet();
+
+		// digest of the bytes received from the start of the file, null if the sender
+		// sent no checksum
+		private final MessageDigest digest;
+		private long digested = 0;
+		private long nextDigestedChunk = 0;
+
+		// counts the bytes received for progress reports
+		private final TransferTracker tracker;
+
+		private Checkpoint(boolean digest, TransferTracker tracker) {
+			this.digest = digest ? DigestCache.newDigest() : null;
+			this.tracker = tracker;
+		}
+
+		private synchronized boolean isReceived(long chunk) {
+			return this.chunks.get((int) chunk);
+		}
+
+		/**
+		 * Record a received chunk and add the chunks received from the start of the
+		 * file to the digest while they are still in the page cache.
+		 *
+		 * @param chunk The chunk.
+		 * @param file  The part file.
+		 * @throws IOException If the chunks cannot be read.
+		 */
+		private synchronized void received(long chunk, FileChannel file) throws IOException {
+			this.chunks.set((int) chunk);
+			if (this.digest == null) {
+				return;
+			}
+			while (this.chunks.get((int) this.nextDigestedChunk)) {
+				long offset = this.nextDigestedChunk * Constants.SOCKET_CHUNK_BYTES;
+				long length = Math.min(Constants.SOCKET_CHUNK_BYTES, this.size - offset);
+				this.digest.update(file.map(FileChannel.MapMode.READ_ONLY, offset, length));
+				this.digested += length;
+				this.nextDigestedChunk++;
+			}
+		}
+
+		/**
+		 * Forget what was received so the file is received from the start.
+		 */
+		private synchronized void restart() {
+			this.chunks.clear();
+			this.nextDigestedChunk = 0;
+			this.digested = 0;
+			if (this.digest != null) {
+				this.digest.reset();
+			}
+		}
+	}
+
+	/**
+	 * The sender does not know the ticket, so retrying will not help.
+	 */
+	private static class UnknownTicketException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private UnknownTicketException() {
+			super("Ticket is unknown or has expired");
+		}
+	}
+
+	/**
+	 * A file offered to a receiver until the ticket expires.
+	 */
+	private static class Offer {
+
+		private final Path filepath;
+		// Key: start, Value: end of a range of the file sent, merged with the ranges
+		// it overlaps or touches
+		private final TreeMap<Long, Long> servedRanges = new TreeMap<>();
+		private final CompletableFuture<Void> sent = new CompletableFuture<>();
+		private final TransferTracker tracker;
+		// time the receiver last requested or was sent bytes of the file
+		private volatile long lastActive = System.currentTimeMillis();
+
+		private Offer(Path filepath, TransferTracker tracker) {
+			this.filepath = filepath;
+			this.tracker = tracker;
+		}
+
+		/**
+		 * Record that the file is being served.
+		 */
+		private void active() {
+			this.lastActive = System.currentTimeMillis();
+		}
+
+		/**
+		 * Check if the ticket has expired.
+		 *
+		 * @return True if nothing was served for the ticket time.
+		 */
+		private boolean isIdle() {
+			return System.currentTimeMillis() - this.lastActive > Constants.SOCKET_TICKET_MILLIS;
+		}
+
+		/**
+		 * Record a range of the file sent to the receiver. The file has been sent
+		 * once every byte has been sent, so chunks sent again after a resume are
+		 * only counted once.
+		 *
+		 * @param start The position of the first byte sent.
+		 * @param end   The position after the last byte sent.
+		 * @param size  The size of the file.
+		 */
+		private synchronized void served(long start, long end, long size) {
+			if (end > start) {
+				Map.Entry<Long, Long> before = this.servedRanges.floorEntry(start);
+				if (before != null && before.getValue() >= start) {
+					start = before.getKey();
+					end = Math.max(end, before.getValue());
+				}
+				for (Map.Entry<Long, Long> after = this.servedRanges.ceilingEntry(start); after != null
+						&& after.getKey() <= end; after = this.servedRanges.ceilingEntry(start)) {
+					end = Math.max(end, after.getValue());
+					this.servedRanges.remove(after.getKey());
+				}
+				this.servedRanges.put(start, end);
+			}
+			Map.Entry<Long, Long> first = this.servedRanges.firstEntry();
+			if (size == 0 || first != null && first.getKey() == 0 && first.getValue() >= size) {
+				this.sent.complete(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package transfer;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import message.FileData;
+import message.Message;
+import message.ReceivedFile;
+import rabbitmq.RabbitMQConnection;
+
+/**
+ * A way of moving a requested file from the user who has it to the user who
+ * requested it. The sender sends a SENT_DATA message whose content is a ticket
+ * the receiver uses to receive the file.
+ * 
+ * @author andrewnguyen
+ *
+ */
+public interface TransferBackend {
+
+	/**
+	 * Get the name of the backend, advertised by requesting users that can
+	 * receive with it.
+	 * 
+	 * @return The name of the backend.
+	 */
+	String getName();
+
+	/**
+	 * Check if a ticket was created by this backend.
+	 * 
+	 * @param ticket The content of a SENT_DATA message.
+	 * @return True if this backend can receive with the ticket.
+	 */
+	boolean accepts(String ticket);
+
+	/**
+	 * Offer the requested file and send the ticket for it to the requesting user.
+	 * 
+	 * @param connection The RabbitMQ connection corresponding to the user.
+	 * @param userID     The ID of the user sending the data.
+	 * @param request    The message the user received requesting the data.
+	 * @param filepath   The path of the file the user is requesting.
+	 * @param tracker    Counts the bytes sent.
+	 * @return A future completed once the file has been sent or the offer has
+	 *         ended.
+	 */
+	CompletableFuture<Void> send(RabbitMQConnection connection, String userID, Message request, Path filepath,
+			TransferTracker tracker);
+
+	/**
+	 * Receive the file offered with a ticket.
+	 * 
+	 * @param connection     The RabbitMQ connection corresponding to the user.
+	 * @param requestMessage The message sent to request the data.
+	 * @param ticket         The content of the SENT_DATA message.
+	 * @param file           The file being received, with its checksum if the
+	 *                       sender sent one.
+	 * @param senderID       The ID of the user sending the file.
+	 * @param tracker        Counts the bytes received.
+	 * @return A future completed with the received file once it has been received
+	 *         and matches its checksum.
+	 */
+	CompletableFuture<ReceivedFile> receive(RabbitMQConnection connection, Message requestMessage, String ticket,
+			FileData file, String senderID, TransferTracker tracker);
+}
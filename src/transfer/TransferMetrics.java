@@ -0,0 +1,99 @@
+package transfer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Totals of the finished transfers with each user, to find slow links and tune
+ * the transfer limits.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class TransferMetrics {
+
+	// Key: user ID, Value: totals of transfers with the user
+	private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+
+	/**
+	 * Add a finished transfer to the totals of its user.
+	 *
+	 * @param progress The final progress of the transfer.
+	 */
+	void record(TransferProgress progress) {
+		this.peers.computeIfAbsent(progress.getUserID(), userID -> new Peer()).record(progress);
+	}
+
+	/**
+	 * Get the totals of each user files were transferred with.
+	 *
+	 * @return A copy of the totals by user ID.
+	 */
+	public Map<String, Peer> getPeers() {
+		return Collections.unmodifiableMap(new HashMap<>(this.peers));
+	}
+
+	/**
+	 * Totals of the finished transfers with one user.
+	 */
+	public static class Peer {
+
+		private long bytesSent = 0;
+		private long sendMillis = 0;
+		private long bytesReceived = 0;
+		private long receiveMillis = 0;
+		private int succeeded = 0;
+		private int failed = 0;
+
+		private synchronized void record(TransferProgress progress) {
+			if (progress.getDirection() == TransferProgress.Direction.SEND) {
+				this.bytesSent += progress.getBytesDone();
+				this.sendMillis += progress.getElapsedMillis();
+			} else {
+				this.bytesReceived += progress.getBytesDone();
+				this.receiveMillis += progress.getElapsedMillis();
+			}
+			if (progress.isSucceeded()) {
+				this.succeeded++;
+			} else {
+				this.failed++;
+			}
+		}
+
+		public synchronized long getBytesSent() {
+			return this.bytesSent;
+		}
+
+		public synchronized long getBytesReceived() {
+			return this.bytesReceived;
+		}
+
+		/**
+		 * Get the average rate of sends to the user while they were running.
+		 *
+		 * @return The rate in bytes per second.
+		 */
+		public synchronized double getSendBytesPerSecond() {
+			return this.sendMillis == 0 ? 0 : this.bytesSent * 1000.0 / this.sendMillis;
+		}
+
+		/**
+		 * Get the average rate of receives from the user while they were running.
+		 *
+		 * @return The rate in bytes per second.
+		 */
+		public synchronized double getReceiveBytesPerSecond() {
+			return this.receiveMillis == 0 ? 0 : this.bytesReceived * 1000.0 / this.receiveMillis;
+		}
+
+		public synchronized int getSucceededTransfers() {
+			return this.succeeded;
+		}
+
+		public synchronized int getFailedTransfers() {
+			return this.failed;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package transfer;
+
+/**
+ * The progress of a file transfer at one moment, reported to the listeners
+ * registered with {@link api.ResearchAPI#onTransferProgress}.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class TransferProgress {
+
+	/**
+	 * Whether the user is sending or receiving the file.
+	 */
+	public enum Direction {
+		SEND, RECEIVE
+	}
+
+	private final Direction direction;
+	private final String userID;
+	private final String filename;
+	private final long bytesDone;
+	private final long totalBytes;
+	private final long elapsedMillis;
+	private final double bytesPerSecond;
+	private final boolean finished;
+	private final boolean succeeded;
+
+	/**
+	 * Constructor
+	 *
+	 * @param direction      Whether the file is sent or received.
+	 * @param userID         The ID of the user the file is transferred with.
+	 * @param filename       The name of the file.
+	 * @param bytesDone      The number of bytes transferred.
+	 * @param totalBytes     The size of the file, -1 if it is unknown.
+	 * @param elapsedMillis  The time since the transfer started.
+	 * @param bytesPerSecond The rate since the previous report.
+	 * @param finished       True if the transfer has ended.
+	 * @param succeeded      True if the transfer ended with the whole file.
+	 */
+	public TransferProgress(Direction direction, String userID, String filename, long bytesDone, long totalBytes,
+			long elapsedMillis, double bytesPerSecond, boolean finished, boolean succeeded) {
+		this.direction = direction;
+		this.userID = userID;
+		this.filename = filename;
+		this.bytesDone = bytesDone;
+		this.totalBytes = totalBytes;
+		this.elapsedMillis = elapsedMillis;
+		this.bytesPerSecond = bytesPerSecond;
+		this.finished = finished;
+		this.succeeded = succeeded;
+	}
+
+	public Direction getDirection() {
+		return this.direction;
+	}
+
+	/**
+	 * Get the ID of the user the file is sent to or received from.
+	 *
+	 * @return The user ID.
+	 */
+	public String getUserID() {
+		return this.userID;
+	}
+
+	public String getFilename() {
+		return this.filename;
+	}
+
+	public long getBytesDone() {
+		return this.bytesDone;
+	}
+
+	/**
+	 * Get the size of the file as announced.
+	 *
+	 * @return The size in bytes or -1 if it is unknown.
+	 */
+	public long getTotalBytes() {
+		return this.totalBytes;
+	}
+
+	public long getElapsedMillis() {
+		return this.elapsedMillis;
+	}
+
+	/**
+	 * Get the rate since the previous report. A running transfer whose rate stays
+	 * at 0 has stalled.
+	 *
+	 * @return The rate in bytes per second.
+	 */
+	public double getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+
+	/**
+	 * Get the average rate since the transfer started.
+	 *
+	 * @return The rate in bytes per second.
+	 */
+	public double getAverageBytesPerSecond() {
+		return this.elapsedMillis == 0 ? 0 : this.bytesDone * 1000.0 / this.elapsedMillis;
+	}
+
+	/**
+	 * Get the time left at the average rate.
+	 *
+	 * @return The time left in milliseconds or -1 if it cannot be estimated.
+	 */
+	public long getRemainingMillis() {
+		double rate = getAverageBytesPerSecond();
+		if (this.totalBytes < 0 || rate <= 0) {
+			return -1;
+		}
+		return (long) (Math.max(0, this.totalBytes - this.bytesDone) * 1000 / rate);
+	}
+
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	public boolean isSucceeded() {
+		return this.succeeded;
+	}
+
+	/**
+	 * To print the progress of a transfer.
+	 */
+	public String toString() {
+		return String.format("(%s %s %s, %d/%d bytes, %.0f B/s%s)", this.direction, this.userID, this.filename,
+				this.bytesDone, this.totalBytes, this.bytesPerSecond,
+				this.finished ? (this.succeeded ? ", done" : ", failed") : "");
+	}
+}
@@ -0,0 +1,256 @@
+package transfer;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import logging.Log;
+import message.FileData;
+
+/**
+ * Queue file transfers and start them once there is capacity, limiting how many
+ * run at once in total and with each user. Waiting transfers are started in the
+ * order of the scheduler's policy, skipping transfers with users already at
+ * their limit so one user cannot hold up transfers with everyone else. Queuing
+ * waits while the queue is full, holding back the messages that start
+ * transfers.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class TransferScheduler {
+
+	private static final String CLASS_NAME = TransferScheduler.class.getName();
+
+	/**
+	 * The order waiting transfers are started in.
+	 */
+	public enum Policy {
+		/** In the order they were queued. */
+		FIFO,
+		/** Smallest file first, so small files are not stuck behind large ones. */
+		SHORTEST_FIRST,
+		/** Highest priority of the file format first, then smallest file first. */
+		PRIORITY
+	}
+
+	private final String name;
+	private volatile int maxTransfers;
+	private volatile int maxTransfersPerUser;
+	private final int maxWaiting;
+
+	// Key: format, Value: priority of transfers of files in the format
+	private final Map<String, Integer> priorities = new HashMap<>();
+
+	private TreeSet<Transfer<?>> waiting;
+	// Key: user ID, Value: number of running transfers with the user
+	private final Map<String, Integer> running = new HashMap<>();
+	private int runningCount = 0;
+	private long sequence = 0;
+
+	/**
+	 * Constructor for creating a TransferScheduler.
+	 *
+	 * @param name                Name of the transfers scheduled, used in logs.
+	 * @param maxTransfers        Maximum number of transfers running at once.
+	 * @param maxTransfersPerUser Maximum number of transfers running at once with
+	 *                            the same user.
+	 * @param maxWaiting          Maximum number of transfers waiting to start
+	 *                            before queuing more waits.
+	 * @param policy              The order waiting transfers are started in.
+	 */
+	public TransferScheduler(String name, int maxTransfers, int maxTransfersPerUser, int maxWaiting,
+			Policy policy) {
+		this.name = name;
+		this.maxTransfers = Math.max(1, maxTransfers);
+		this.maxTransfersPerUser = Math.max(1, maxTransfersPerUser);
+		this.maxWaiting = Math.max(1, maxWaiting);
+		this.waiting = new TreeSet<>(comparator(policy));
+	}
+
+	/**
+	 * Set the maximum number of transfers running at once.
+	 *
+	 * @param maxTransfers        In total.
+	 * @param maxTransfersPerUser With the same user.
+	 */
+	public void setLimits(int maxTransfers, int maxTransfersPerUser) {
+		synchronized (this) {
+			this.maxTransfers = Math.max(1, maxTransfers);
+			this.maxTransfersPerUser = Math.max(1, maxTransfersPerUser);
+		}
+		startWaiting();
+	}
+
+	/**
+	 * Set the order waiting transfers are started in.
+	 *
+	 * @param policy The policy.
+	 */
+	public synchronized void setPolicy(Policy policy) {
+		TreeSet<Transfer<?>> reordered = new TreeSet<>(comparator(policy));
+		reordered.addAll(this.waiting);
+		this.waiting = reordered;
+	}
+
+	/**
+	 * Set the priority of transfers of files in a format, used by
+	 * {@link Policy#PRIORITY}. Formats without a priority have priority 0.
+	 *
+	 * @param format   The file format.
+	 * @param priority The priority, higher is started first.
+	 */
+	public synchronized void setPriority(String format, int priority) {
+		this.priorities.put(format, priority);
+	}
+
+	/**
+	 * Get the number of transfers waiting to start.
+	 *
+	 * @return The queue depth.
+	 */
+	public synchronized int getQueueDepth() {
+		return this.waiting.size();
+	}
+
+	/**
+	 * Get the number of transfers running.
+	 *
+	 * @return The number of running transfers.
+	 */
+	public synchronized int getRunningCount() {
+		return this.runningCount;
+	}
+
+	/**
+	 * Queue a transfer, waiting while the queue is full.
+	 *
+	 * @param <T>      The result of the transfer.
+	 * @param userID   The ID of the user the file is transferred with.
+	 * @param file     The file transferred.
+	 * @param transfer Starts the transfer, returning a future completed once it has
+	 *                 finished.
+	 * @return A future completed with the result of the transfer, or failed if
+	 *         interrupted while waiting to queue it.
+	 */
+	public <T> CompletableFuture<T> submit(String userID, FileData file, Supplier<CompletableFuture<T>> transfer) {
+		Transfer<T> queued;
+		synchronized (this) {
+			try {
+				while (this.waiting.size() >= this.maxWaiting) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return CompletableFuture.failedFuture(e);
+			}
+			long size = file.getFileSize() < 0 ? Long.MAX_VALUE : file.getFileSize();
+			int priority = this.priorities.getOrDefault(file.getFormat(), 0);
+			queued = new Transfer<>(userID, size, priority, this.sequence++, transfer);
+			this.waiting.add(queued);
+			if (this.runningCount >= this.maxTransfers) {
+				Log.debug(String.format("%s transfer of %s queued behind %d others", this.name, file.getFileName(),
+						this.waiting.size() - 1), CLASS_NAME, "submit");
+			}
+		}
+		startWaiting();
+		return queued.result;
+	}
+
+	/**
+	 * Start waiting transfers while there is capacity. Transfers are started
+	 * outside the lock so a transfer that completes immediately can start the next.
+	 */
+	private void startWaiting() {
+		while (true) {
+			Transfer<?> next = null;
+			synchronized (this) {
+				if (this.runningCount >= this.maxTransfers) {
+					return;
+				}
+				Iterator<Transfer<?>> iterator = this.waiting.iterator();
+				while (iterator.hasNext()) {
+					Transfer<?> transfer = iterator.next();
+					if (this.running.getOrDefault(transfer.userID, 0) < this.maxTransfersPerUser) {
+						iterator.remove();
+						next = transfer;
+						break;
+					}
+				}
+				if (next == null) {
+					return;
+				}
+				this.running.merge(next.userID, 1, Integer::sum);
+				this.runningCount++;
+				// room in the queue for a transfer waiting to be queued
+				notifyAll();
+			}
+			start(next);
+		}
+	}
+
+	private <T> void start(Transfer<T> transfer) {
+		CompletableFuture<T> started;
+		try {
+			started = transfer.start.get();
+		} catch (RuntimeException e) {
+			started = CompletableFuture.failedFuture(e);
+		}
+		started.whenComplete((result, error) -> {
+			finished(transfer);
+			if (error != null) {
+				transfer.result.completeExceptionally(error);
+			} else {
+				transfer.result.complete(result);
+			}
+		});
+	}
+
+	private void finished(Transfer<?> transfer) {
+		synchronized (this) {
+			this.running.computeIfPresent(transfer.userID, (userID, count) -> count == 1 ? null : count - 1);
+			this.runningCount--;
+		}
+		startWaiting();
+	}
+
+	private static Comparator<Transfer<?>> comparator(Policy policy) {
+		Comparator<Transfer<?>> fifo = Comparator.comparingLong(transfer -> transfer.sequence);
+		Comparator<Transfer<?>> shortest = Comparator.<Transfer<?>>comparingLong(transfer -> transfer.size)
+				.thenComparing(fifo);
+		switch (policy) {
+			case FIFO:
+				return fifo;
+			case PRIORITY:
+				return Comparator.<Transfer<?>>comparingInt(transfer -> -transfer.priority).thenComparing(shortest);
+			case SHORTEST_FIRST:
+			default:
+				return shortest;
+		}
+	}
+
+	/**
+	 * A queued transfer.
+	 */
+	private static class Transfer<T> {
+
+		private final String userID;
+		private final long size;
+		private final int priority;
+		private final long sequence;
+		private final Supplier<CompletableFuture<T>> start;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+
+		private Transfer(String userID, long size, int priority, long sequence, Supplier<CompletableFuture<T>> start) {
+			this.userID = userID;
+			this.size = size;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.start = start;
+		}
+	}
+}
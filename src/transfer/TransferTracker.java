@@ -0,0 +1,88 @@
+package transfer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import message.FileData;
+
+/**
+ * Count the bytes of a running transfer. Backends update the count as bytes are
+ * sent or received, and {@link Transfers} reports it to progress listeners.
+ *
+ * @author andrewnguyen
+ *
+ */
+public class TransferTracker {
+
+	private final TransferProgress.Direction direction;
+	private final String userID;
+	private final String filename;
+	private final long totalBytes;
+	private final long startNanos = System.nanoTime();
+	private final AtomicLong bytesDone = new AtomicLong();
+
+	// count and time of the previous report, to compute the current rate
+	private long reportedBytes = 0;
+	private long reportedNanos = this.startNanos;
+
+	/**
+	 * Constructor
+	 *
+	 * @param direction Whether the file is sent or received.
+	 * @param userID    The ID of the user the file is transferred with.
+	 * @param file      The file, with its size if it is known.
+	 */
+	public TransferTracker(TransferProgress.Direction direction, String userID, FileData file) {
+		this.direction = direction;
+		this.userID = userID;
+		this.filename = file.getFileName();
+		this.totalBytes = file.getFileSize();
+	}
+
+	/**
+	 * Add bytes sent or received.
+	 *
+	 * @param bytes The number of bytes.
+	 */
+	public void add(long bytes) {
+		this.bytesDone.addAndGet(bytes);
+	}
+
+	/**
+	 * Set the number of bytes transferred, such as when a transfer resumes.
+	 *
+	 * @param bytes The number of bytes.
+	 */
+	public void set(long bytes) {
+		this.bytesDone.set(bytes);
+	}
+
+	/**
+	 * Set the bytes transferred from a percentage, for transfers that only report
+	 * their progress as a percentage.
+	 *
+	 * @param percent The percentage of the file transferred.
+	 */
+	public void setPercent(int percent) {
+		if (this.totalBytes > 0) {
+			this.bytesDone.set(this.totalBytes * Math.min(100, percent) / 100);
+		}
+	}
+
+	/**
+	 * Get the progress of the transfer now.
+	 *
+	 * @param finished  True if the transfer has ended.
+	 * @param succeeded True if the transfer ended with the whole file.
+	 * @return The progress.
+	 */
+	synchronized TransferProgress report(boolean finished, boolean succeeded) {
+		long now = System.nanoTime();
+		long bytes = this.bytesDone.get();
+		long intervalNanos = now - this.reportedNanos;
+		double rate = intervalNanos <= 0 ? 0 : (bytes - this.reportedBytes) * 1e9 / intervalNanos;
+		this.reportedBytes = bytes;
+		this.reportedNanos = now;
+		return new TransferProgress(this.direction, this.userID, this.filename, bytes, this.totalBytes,
+				(now - this.startNanos) / 1_000_000, Math.max(0, rate), finished, succeeded);
+	}
+}
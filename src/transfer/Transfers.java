@@ -0,0 +1,334 @@
+package transfer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import constants.Constants;
+import logging.Log;
+import message.FileData;
+import message.Message;
+import message.ReceivedFile;
+import message.ReceivedFileIndex;
+import rabbitmq.RabbitMQConnection;
+
+/**
+ * The transfer backends a user can send and receive files with, in order of
+ * preference. magic-wormhole is always available, so users whose clients only
+ * support magic-wormhole can always be sent files.
+ * 
+ * @author andrewnguyen
+ *
+ */
+public class Transfers {
+
+	private static final String CLASS_NAME = Transfers.class.getName();
+
+	private final TransferBackend wormhole = new WormholeTransfer();
+	private final List<TransferBackend> backends = new CopyOnWriteArrayList<>();
+
+	// sends and receives are limited separately so a send waiting for the other
+	// user to receive never holds up this user's receives
+	private final TransferScheduler sending = new TransferScheduler("send", Constants.MAX_TRANSFERS,
+			Constants.MAX_TRANSFERS_PER_USER, Constants.MAX_WAITING_TRANSFERS,
+			TransferScheduler.Policy.SHORTEST_FIRST);
+	private final TransferScheduler receiving = new TransferScheduler("receive", Constants.MAX_TRANSFERS,
+			Constants.MAX_TRANSFERS_PER_USER, Constants.MAX_WAITING_TRANSFERS,
+			TransferScheduler.Policy.SHORTEST_FIRST);
+
+	// retries of each request, by sender, file and origin message ID
+	private final RetryPolicy retries = new RetryPolicy();
+	// Key: sender/file/origin message ID, Value: request sent again after receiving failed
+	private final Map<String, Message> retriedRequests = new ConcurrentHashMap<>();
+
+	private final List<Consumer<TransferProgress>> progressListeners = new CopyOnWriteArrayList<>();
+	// transfers that have started and not finished
+	private final Set<TransferTracker> active = ConcurrentHashMap.newKeySet();
+	private final TransferMetrics metrics = new TransferMetrics();
+	// reports the progress of the active transfers, started with the first listener
+	private ScheduledExecutorService ticker;
+
+	/**
+	 * Constructor for the backends of a user using only magic-wormhole.
+	 */
+	public Transfers() {
+		this.backends.add(this.wormhole);
+	}
+
+	/**
+	 * Add a backend to use before the backends already added.
+	 * 
+	 * @param backend The transfer backend.
+	 */
+	public void addPreferred(TransferBackend backend) {
+		this.backends.add(0, backend);
+	}
+
+	/**
+	 * Get the scheduler of files sent to other users.
+	 * 
+	 * @return The scheduler.
+	 */
+	public TransferScheduler getSendScheduler() {
+		return this.sending;
+	}
+
+	/**
+	 * Get the scheduler of files received from other users.
+	 * 
+	 * @return The scheduler.
+	 */
+	public TransferScheduler getReceiveScheduler() {
+		return this.receiving;
+	}
+
+	/**
+	 * Queue sending a requested file with the backend chosen for the request.
+	 * 
+	 * @param connection The RabbitMQ connection corresponding to the user.
+	 * @param userID     The ID of the user sending the data.
+	 * @param request    The message the user received requesting the data.
+	 * @param filepath   The path of the file the user is requesting.
+	 * @return A future completed once the file has been sent.
+	 */
+	public CompletableFuture<Void> send(RabbitMQConnection connection, String userID, Message request,
+			Path filepath) {
+		TransferBackend backend = forRequest(request);
+		FileData file;
+		try {
+			file = FileData.of(filepath);
+		} catch (IOException e) {
+			file = new FileData(filepath.getFileName().toString(), -1);
+		}
+		FileData tracked = file;
+		return this.sending.submit(request.getSenderID(), file,
+				() -> track(new TransferTracker(TransferProgress.Direction.SEND, request.getSenderID(), tracked),
+						tracker -> backend.send(connection, userID, request, filepath, tracker)));
+	}
+
+	/**
+	 * Queue receiving a file with the backend that created its ticket.
+	 * 
+	 * @param connection     The RabbitMQ connection corresponding to the user.
+	 * @param requestMessage The message sent to request the data.
+	 * @param sentData       The SENT_DATA message holding the ticket.
+	 * @return A future completed with the received file once it has been received.
+	 */
+	public CompletableFuture<ReceivedFile> receive(RabbitMQConnection connection, Message requestMessage,
+			Message sentData) {
+		String ticket = sentData.getContent();
+		TransferBackend backend = forTicket(ticket);
+		if (backend == null) {
+			return CompletableFuture.failedFuture(new IOException("Unsupported transfer ticket: " + ticket));
+		}
+		FileData file = sentData.getFileData().get(0);
+		String senderID = sentData.getSenderID();
+		String retryKey = getRetryKey(sentData);
+		// requests sent again are not recorded with the user's requests
+		Message request = requestMessage != null ? requestMessage : this.retriedRequests.get(retryKey);
+		return this.receiving.submit(senderID, file,
+				() -> track(new TransferTracker(TransferProgress.Direction.RECEIVE, senderID, file),
+						tracker -> backend.receive(connection, request, ticket, file, senderID, tracker)))
+				.whenComplete((receivedFile, error) -> {
+					if (error == null) {
+						ReceivedFileIndex.received(receivedFile.getFile(), file.getChecksum());
+						this.retries.reset(retryKey);
+						this.retriedRequests.remove(retryKey);
+					} else {
+						requestAgain(connection, request, senderID, retryKey, backend);
+					}
+				});
+	}
+
+	/**
+	 * Start a transfer and report its progress until it finishes. The final
+	 * progress is added to the metrics.
+	 * 
+	 * @param tracker  The tracker of the transfer.
+	 * @param transfer Starts the transfer with the tracker.
+	 * @return The future of the transfer.
+	 */
+	private <T> CompletableFuture<T> track(TransferTracker tracker,
+			Function<TransferTracker, CompletableFuture<T>> transfer) {
+		this.active.add(tracker);
+		CompletableFuture<T> future;
+		try {
+			future = transfer.apply(tracker);
+		} catch (RuntimeException e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+		return future.whenComplete((result, error) -> {
+			this.active.remove(tracker);
+			TransferProgress progress = tracker.report(true, error == null);
+			this.metrics.record(progress);
+			publish(progress);
+		});
+	}
+
+	/**
+	 * Report the progress of every active transfer. Transfers that are not
+	 * receiving bytes are reported too, with a rate of 0.
+	 */
+	private void reportActive() {
+		for (TransferTracker tracker : this.active) {
+			publish(tracker.report(false, false));
+		}
+	}
+
+	private void publish(TransferProgress progress) {
+		for (Consumer<TransferProgress> listener : this.progressListeners) {
+			try {
+				listener.accept(progress);
+			} catch (RuntimeException e) {
+				Log.error("Transfer progress listener failed: " + e.getMessage(), CLASS_NAME + ":publish");
+			}
+		}
+	}
+
+	/**
+	 * Add a listener called with the progress of each running transfer every
+	 * {@link Constants#TRANSFER_PROGRESS_MILLIS} and once more when it finishes.
+	 * 
+	 * @param listener The listener, called on a transfer thread.
+	 */
+	public synchronized void onProgress(Consumer<TransferProgress> listener) {
+		this.progressListeners.add(listener);
+		if (this.ticker == null) {
+			this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "transfer-progress");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.ticker.scheduleAtFixedRate(this::reportActive, Constants.TRANSFER_PROGRESS_MILLIS,
+					Constants.TRANSFER_PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Get the totals of the finished transfers with each user.
+	 * 
+	 * @return The metrics.
+	 */
+	public TransferMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Request a file again after receiving it failed, once the backoff delay for
+	 * its request has passed. A file that failed with another backend is requested
+	 * over magic-wormhole. The request is sent again to the user who sent the file,
+	 * which is the translator for requests for converted data.
+	 * 
+	 * @param connection     The RabbitMQ connection corresponding to the user.
+	 * @param requestMessage The message sent to request the data.
+	 * @param senderID       The ID of the user who sent the file.
+	 * @param retryKey       The key of the request in the retry budget.
+	 * @param failed         The backend the file failed to be received with.
+	 */
+	private void requestAgain(RabbitMQConnection connection, Message requestMessage, String senderID,
+			String retryKey, TransferBackend failed) {
+		if (requestMessage == null) {
+			return;
+		}
+		long delay = this.retries.nextDelay(retryKey);
+		if (delay < 0) {
+			Log.error("Giving up on request after " + Constants.TRANSFER_RETRIES + " retries: "
+					+ requestMessage.getContent(), CLASS_NAME + ":requestAgain");
+			this.retriedRequests.remove(retryKey);
+			return;
+		}
+
+		Message retry = new Message(requestMessage.getSenderID(), Constants.REQUEST_DATA);
+		for (FileData file : requestMessage.getFileData()) {
+			retry.requestFile(file);
+		}
+		retry.addRequestFormats(requestMessage.getRequestFormats());
+		retry.addOriginMessageID(requestMessage.getOriginMessageID());
+		retry.addSourceUserID(requestMessage.getSourceUserID());
+		if (failed == this.wormhole) {
+			retry.addTransferBackends(requestMessage.getTransferBackends());
+		} else {
+			retry.addTransferBackends(Arrays.asList(Constants.WORMHOLE_TRANSFER));
+		}
+		retry.addContent(requestMessage.getContent());
+		this.retriedRequests.put(retryKey, retry);
+
+		Log.other(String.format("Requesting again in %d ms: %s", delay, requestMessage.getContent()));
+		CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+				.execute(() -> connection.direct(retry, senderID));
+	}
+
+	/**
+	 * Get the key of a request in the retry budget.
+	 * 
+	 * @param sentData The SENT_DATA message answering the request.
+	 * @return The sender, file and origin message ID of the request, since the
+	 *         files of one announcement share its origin message ID.
+	 */
+	private static String getRetryKey(Message sentData) {
+		return sentData.getSenderID() + "/" + sentData.getFileData().get(0).getFileName() + "/"
+				+ sentData.getOriginMessageID();
+	}
+
+	/**
+	 * Get the names of the backends to advertise in requests.
+	 * 
+	 * @return The names in order of preference, empty if only magic-wormhole is
+	 *         used so requests are unchanged for other clients.
+	 */
+	public List<String> getAdvertisedNames() {
+		if (this.backends.size() == 1) {
+			return Collections.emptyList();
+		}
+		List<String> names = new ArrayList<>();
+		for (TransferBackend backend : this.backends) {
+			names.add(backend.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Choose the backend to send a requested file with.
+	 * 
+	 * @param request The message requesting the data.
+	 * @return The most preferred backend the requesting user can receive with,
+	 *         magic-wormhole if the request does not name any.
+	 */
+	public TransferBackend forRequest(Message request) {
+		List<String> supported = request.getTransferBackends();
+		for (TransferBackend backend : this.backends) {
+			if (supported.contains(backend.getName())) {
+				return backend;
+			}
+		}
+		return this.wormhole;
+	}
+
+	/**
+	 * Choose the backend to receive a file with.
+	 * 
+	 * @param ticket The content of the SENT_DATA message.
+	 * @return The backend that created the ticket or null if none did.
+	 */
+	public TransferBackend forTicket(String ticket) {
+		for (TransferBackend backend : this.backends) {
+			if (backend.accepts(ticket)) {
+				return backend;
+			}
+		}
+		return null;
+	}
+}
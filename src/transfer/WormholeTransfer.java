@@ -0,0 +1,74 @@
+package transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import constants.Constants;
+import message.DigestCache;
+import message.FileData;
+import message.Message;
+import message.ReceivedFile;
+import message.ReceivedFileIndex;
+import message.Wormhole;
+import rabbitmq.RabbitMQConnection;
+
+/**
+ * Transfer files with magic-wormhole, supported by every client.
+ * 
+ * @author andrewnguyen
+ *
+ */
+public class WormholeTransfer implements TransferBackend {
+
+	private static final String RECEIVE_COMMAND = "wormhole receive";
+
+	@Override
+	public String getName() {
+		return Constants.WORMHOLE_TRANSFER;
+	}
+
+	@Override
+	public boolean accepts(String ticket) {
+		return ticket != null && ticket.startsWith(RECEIVE_COMMAND);
+	}
+
+	@Override
+	public CompletableFuture<Void> send(RabbitMQConnection connection, String userID, Message request, Path filepath,
+			TransferTracker tracker) {
+		return Wormhole.send(connection, userID, request, filepath, tracker::setPercent).thenAccept(exitValue -> {
+			if (exitValue != 0) {
+				throw new CompletionException(
+						new IOException("'wormhole send' failed with exit value " + exitValue));
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<ReceivedFile> receive(RabbitMQConnection connection, Message requestMessage,
+			String ticket, FileData file, String senderID, TransferTracker tracker) {
+		return Wormhole.receive(ticket, file.getFileName(), senderID, tracker::setPercent).thenApply(receivedFile -> {
+			// magic-wormhole writes the file itself, so it is read again to check it
+			String checksum = file.getChecksum();
+			if (checksum == null) {
+				return receivedFile;
+			}
+			File received = new File(receivedFile.getFilepath());
+			try {
+				if (checksum.equalsIgnoreCase(DigestCache.checksum(received.toPath()))) {
+					return receivedFile;
+				}
+				received.delete();
+				ReceivedFileIndex.release(received);
+				throw new CompletionException(new IOException(
+						"Checksum of '" + file.getFileName() + "' does not match the checksum sent"));
+			} catch (IOException e) {
+				received.delete();
+				ReceivedFileIndex.release(received);
+				throw new CompletionException(e);
+			}
+		});
+	}
+}
@@ -8,8 +8,13 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
+import message.FileData;
 import message.Message;
 
 /**
@@ -21,26 +26,35 @@ import message.Message;
 public class User {
 	private String userID;
 
-	private ArrayList<String> want;
+	private List<String> want;
 	private Map<String, ArrayList<String>> convert;
-	private ArrayList<Path> filepaths;
+	private List<Path> filepaths;
 
 	private Map<String, Message> receivedMessages; // Key: MessageID, Value: Message
 	private Map<String, ArrayList<String>> filesRequested; // Key: SourceUserID, Value: [Filenames]
 	private Map<String, ArrayList<String>> translationsRequested; // Key: Filename, Value: [DestinationFormats]
-	private Message requestMessage;
+	private Map<String, Message> requestMessages; // Key: RecipientID/Filename, Value: REQUEST_DATA message
+
+	private AtomicLong catalogueVersion; // version of the files announced by the user
+	private Map<String, Long> peerCatalogueVersions; // Key: UserID, Value: Latest catalogue version
+	private Set<String> catalogueRequests; // UserIDs the user has requested a catalogue snapshot from
 
 	/**
 	 * Constructor for creating a User instance.
 	 */
 	public User() {
 		this.userID = UUID.randomUUID().toString();
-		this.want = new ArrayList<>();
-		this.convert = new HashMap<>();
-		this.filepaths = new ArrayList<>();
-		this.receivedMessages = new HashMap<>();
+		// read while messages are processed in parallel and written by the application
+		this.want = new CopyOnWriteArrayList<>();
+		this.convert = new ConcurrentHashMap<>();
+		this.filepaths = new CopyOnWriteArrayList<>();
+		this.receivedMessages = new ConcurrentHashMap<>();
 		this.filesRequested = new HashMap<>();
+		this.requestMessages = new HashMap<>();
 		this.translationsRequested = new HashMap<>();
+		this.catalogueVersion = new AtomicLong();
+		this.peerCatalogueVersions = new ConcurrentHashMap<>();
+		this.catalogueRequests = ConcurrentHashMap.newKeySet();
 	}
 
 	// ************************************
@@ -55,7 +69,10 @@ public class User {
 	 * @param wantFormats The formats the user wants.
 	 */
 	public void addWant(String... wantFormats) {
-		this.want.addAll(Arrays.asList(wantFormats));
+		// formats are interned to match the interned formats of FileData
+		for (String wantFormat : wantFormats) {
+			this.want.add(wantFormat.intern());
+		}
 	}
 
 	/**
@@ -65,8 +82,13 @@ public class User {
 	 * @param destination The translated data format.
 	 */
 	public void addConvert(String original, String destination) {
-		this.convert.putIfAbsent(original, new ArrayList<>());
-		this.convert.get(original).add(destination);
+		// replace the list rather than modify it while it may be read
+		ArrayList<String> newDestinations = new ArrayList<>(Arrays.asList(destination.intern()));
+		this.convert.merge(original.intern(), newDestinations, (existing, added) -> {
+			ArrayList<String> destinations = new ArrayList<>(existing);
+			destinations.addAll(added);
+			return destinations;
+		});
 	}
 
 	/**
@@ -79,6 +101,56 @@ public class User {
 		this.filepaths.add(validPath);
 	}
 
+	/**
+	 * Remove the file path of a file the user no longer shares.
+	 * 
+	 * @param filepath The file path of the file.
+	 * @return True if the file path was shared.
+	 */
+	public boolean removeFilepath(Path filepath) {
+		return this.filepaths.remove(filepath);
+	}
+
+	/**
+	 * Advance the version of the user's file catalogue.
+	 * 
+	 * @return The new catalogue version.
+	 */
+	public long nextCatalogueVersion() {
+		return this.catalogueVersion.incrementAndGet();
+	}
+
+	/**
+	 * Record the latest catalogue version seen from another user. Older versions
+	 * are ignored.
+	 * 
+	 * @param userID  The user who announced the catalogue.
+	 * @param version The catalogue version.
+	 */
+	public void setPeerCatalogueVersion(String userID, long version) {
+		this.peerCatalogueVersions.merge(userID, version, Math::max);
+	}
+
+	/**
+	 * Record that a catalogue snapshot has been requested from another user.
+	 * 
+	 * @param userID The user the snapshot was requested from.
+	 * @return True if a snapshot was not already requested from the user.
+	 */
+	public boolean addCatalogueRequest(String userID) {
+		return this.catalogueRequests.add(userID);
+	}
+
+	/**
+	 * Remove the catalogue snapshot request for another user.
+	 * 
+	 * @param userID The user the snapshot was requested from.
+	 * @return True if a snapshot had been requested from the user.
+	 */
+	public boolean removeCatalogueRequest(String userID) {
+		return this.catalogueRequests.remove(userID);
+	}
+
 	/**
 	 * Add the received message to user history.
 	 * 
@@ -95,11 +167,28 @@ public class User {
 	 * @param sourceUserID The user who has the data.
 	 * @param filename     The name of the file requested.
 	 */
-	public void addFileRequest(String sourceUserID, String filename) {
+	public synchronized void addFileRequest(String sourceUserID, String filename) {
 		this.filesRequested.putIfAbsent(sourceUserID, new ArrayList<>());
 		this.filesRequested.get(sourceUserID).add(filename);
 	}
 
+	/**
+	 * Add a file request to sourceUserID mapping in requests if the file has not
+	 * already been requested from the user.
+	 * 
+	 * @param sourceUserID The user who has the data.
+	 * @param filename     The name of the file requested.
+	 * @return True if the request was added, false if it was already requested.
+	 */
+	public synchronized boolean addFileRequestIfAbsent(String sourceUserID, String filename) {
+		List<String> requested = this.filesRequested.get(sourceUserID);
+		if (requested != null && requested.contains(filename)) {
+			return false;
+		}
+		addFileRequest(sourceUserID, filename);
+		return true;
+	}
+
 	/**
 	 * Remove the file request for the sender and delete sender from hash map if no
 	 * more requests.
@@ -107,19 +196,42 @@ public class User {
 	 * @param sourceUserID The user who has the data.
 	 * @param filename     The name of the file to be removed from requests.
 	 */
-	public void removeFileRequest(String sourceUserID, String filename) {
+	public synchronized void removeFileRequest(String sourceUserID, String filename) {
+		if (this.filesRequested.get(sourceUserID) == null) {
+			return;
+		}
 		this.filesRequested.get(sourceUserID).remove(filename);
 		if (this.filesRequested.get(sourceUserID).isEmpty()) {
 			this.filesRequested.remove(sourceUserID);
 		}
 	}
 
-	public void addRequestMessage(Message message) {
-		this.requestMessage = message;
+	/**
+	 * Add a request for data sent to another user, for each file it requests.
+	 * Requests for converted data are sent to the translator rather than the
+	 * message's source user.
+	 * 
+	 * @param recipientID The user the request was sent to, who will send the data.
+	 * @param message     The REQUEST_DATA message.
+	 */
+	public synchronized void addRequestMessage(String recipientID, Message message) {
+		for (FileData file : message.getFileData()) {
+			this.requestMessages.put(getRequestKey(recipientID, file.getFileName()), message);
+		}
+	}
+
+	/**
+	 * Remove the request for a file once it has been received or has failed.
+	 * 
+	 * @param sourceUserID The user who has the data.
+	 * @param filename     The name of the file requested.
+	 */
+	public synchronized void removeRequestMessage(String sourceUserID, String filename) {
+		this.requestMessages.remove(getRequestKey(sourceUserID, filename));
 	}
 
-	public void removeRequestMessage() {
-		this.requestMessage = null;
+	private static String getRequestKey(String sourceUserID, String filename) {
+		return sourceUserID + "/" + filename;
 	}
 
 	/**
@@ -128,11 +240,28 @@ public class User {
 	 * @param filename          The filename being requested for translation.
 	 * @param destinationFormat The requested format for translation.
 	 */
-	public void addTranslationRequest(String filename, String destinationFormat) {
+	public synchronized void addTranslationRequest(String filename, String destinationFormat) {
 		this.translationsRequested.putIfAbsent(filename, new ArrayList<>());
 		this.translationsRequested.get(filename).add(destinationFormat);
 	}
 
+	/**
+	 * Add a translation request to filename mapping if the format has not already
+	 * been requested for the file.
+	 * 
+	 * @param filename          The filename being requested for translation.
+	 * @param destinationFormat The requested format for translation.
+	 * @return True if the request was added, false if it was already requested.
+	 */
+	public synchronized boolean addTranslationRequestIfAbsent(String filename, String destinationFormat) {
+		List<String> requested = this.translationsRequested.get(filename);
+		if (requested != null && requested.contains(destinationFormat)) {
+			return false;
+		}
+		addTranslationRequest(filename, destinationFormat);
+		return true;
+	}
+
 	/**
 	 * Remove the translation request for the filename and remove filename from hash
 	 * map if no more destination formats.
@@ -140,7 +269,7 @@ public class User {
 	 * @param filename          The filename requested for translation.
 	 * @param destinationFormat The requested format for translation.
 	 */
-	public void removeTranslationRequest(String filename, String destinationFormat) {
+	public synchronized void removeTranslationRequest(String filename, String destinationFormat) {
 		if (this.translationsRequested.get(filename) == null) {
 			return;
 		}
@@ -194,6 +323,25 @@ public class User {
 		return this.filepaths;
 	}
 
+	/**
+	 * Get the version of the user's file catalogue.
+	 * 
+	 * @return The catalogue version, 0 if no files have been announced.
+	 */
+	public long getCatalogueVersion() {
+		return this.catalogueVersion.get();
+	}
+
+	/**
+	 * Get the latest catalogue version seen from another user.
+	 * 
+	 * @param userID The user who announced the catalogue.
+	 * @return The catalogue version, 0 if none has been seen.
+	 */
+	public long getPeerCatalogueVersion(String userID) {
+		return this.peerCatalogueVersions.getOrDefault(userID, 0L);
+	}
+
 	/**
 	 * Get all the messages the user has received.
 	 * 
@@ -228,12 +376,19 @@ public class User {
 	 * @param sourceUserID The user who has data.
 	 * @return An ArrayList of filenames requested for the user.
 	 */
-	public List<String> getFilesRequested(String sourceUserID) {
+	public synchronized List<String> getFilesRequested(String sourceUserID) {
 		return this.filesRequested.get(sourceUserID);
 	}
 
-	public Message getRequestMessage() {
-		return this.requestMessage;
+	/**
+	 * Get the request sent for a file.
+	 * 
+	 * @param sourceUserID The user who has the data.
+	 * @param filename     The name of the file requested.
+	 * @return The REQUEST_DATA message or null if the file was not requested.
+	 */
+	public synchronized Message getRequestMessage(String sourceUserID, String filename) {
+		return this.requestMessages.get(getRequestKey(sourceUserID, filename));
 	}
 
 	/**
@@ -242,7 +397,7 @@ public class User {
 	 * @param filename The filename requested for translation.
 	 * @return An ArrayList of destination formats requested by the user.
 	 */
-	public List<String> getTranslationFormatRequests(String filename) {
+	public synchronized List<String> getTranslationFormatRequests(String filename) {
 		return this.translationsRequested.get(filename);
 	}
 }